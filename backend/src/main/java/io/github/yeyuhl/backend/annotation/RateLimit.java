@@ -0,0 +1,60 @@
+package io.github.yeyuhl.backend.annotation;
+
+import io.github.yeyuhl.backend.utils.limit.LimitAlgorithm;
+
+import java.lang.annotation.*;
+
+/**
+ * 接口级别的限流策略，标注在Controller方法上
+ * 启动时由RateLimitRoutes按照方法的请求路径收集到路由表中，请求到达时由RateLimitFilter执行
+ *
+ * @author yeyuhl
+ * @since 2023/10/30
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RateLimit {
+    /**
+     * @return 限流对象
+     */
+    Key key() default Key.IP;
+
+    /**
+     * @return 周期内允许的请求数
+     */
+    int limit();
+
+    /**
+     * @return 时间周期，以秒为单位
+     */
+    int period();
+
+    /**
+     * @return 超限后的封禁时间，以秒为单位，为0时只拒绝超出的请求
+     */
+    int block() default 0;
+
+    /**
+     * @return 限流算法
+     */
+    LimitAlgorithm algorithm() default LimitAlgorithm.SLIDING_WINDOW;
+
+    /**
+     * 限流对象，取不到对应的值时回落到按IP地址限流
+     */
+    enum Key {
+        /**
+         * 客户端IP地址
+         */
+        IP,
+        /**
+         * 已登录用户的ID，即JwtAuthenticationFilter写入的id请求属性
+         */
+        USER,
+        /**
+         * 请求参数中的email
+         */
+        EMAIL
+    }
+}
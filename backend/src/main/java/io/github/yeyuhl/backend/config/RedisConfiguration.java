@@ -0,0 +1,39 @@
+package io.github.yeyuhl.backend.config;
+
+import io.github.yeyuhl.backend.utils.AccountBloomFilter;
+import io.github.yeyuhl.backend.utils.AccountCache;
+import io.github.yeyuhl.backend.utils.Const;
+import io.github.yeyuhl.backend.utils.JwtBlacklist;
+import io.github.yeyuhl.backend.utils.RevocationEpochs;
+import io.github.yeyuhl.backend.utils.SubnetLimiter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+/**
+ * Redis发布订阅配置，用于各节点之间同步本地缓存
+ *
+ * @author yeyuhl
+ * @since 2023/10/22
+ */
+@Configuration
+public class RedisConfiguration {
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory factory,
+                                                                       JwtBlacklist blacklist,
+                                                                       RevocationEpochs epochs,
+                                                                       SubnetLimiter subnetLimiter,
+                                                                       AccountCache accountCache,
+                                                                       AccountBloomFilter accountBloomFilter) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(factory);
+        container.addMessageListener(blacklist, new ChannelTopic(Const.JWT_BLACK_LIST_CHANNEL));
+        container.addMessageListener(epochs, new ChannelTopic(Const.JWT_EPOCH_CHANNEL));
+        container.addMessageListener(subnetLimiter, new ChannelTopic(Const.FLOW_SUBNET_CHANNEL));
+        container.addMessageListener(accountCache, new ChannelTopic(Const.ACCOUNT_CACHE_CHANNEL));
+        container.addMessageListener(accountBloomFilter, new ChannelTopic(Const.ACCOUNT_BLOOM_CHANNEL));
+        return container;
+    }
+}
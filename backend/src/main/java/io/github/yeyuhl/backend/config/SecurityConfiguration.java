@@ -1,24 +1,30 @@
 package io.github.yeyuhl.backend.config;
 
 import io.github.yeyuhl.backend.entity.RestBean;
-import io.github.yeyuhl.backend.entity.dto.Account;
+import io.github.yeyuhl.backend.entity.dto.AccountDetails;
+import io.github.yeyuhl.backend.entity.dto.JwtPrincipal;
 import io.github.yeyuhl.backend.entity.vo.response.AuthorizeVO;
 import io.github.yeyuhl.backend.filter.JwtAuthenticationFilter;
+import io.github.yeyuhl.backend.filter.LoginBulkheadFilter;
+import io.github.yeyuhl.backend.filter.LoginFailureFilter;
+import io.github.yeyuhl.backend.filter.RateLimitFilter;
 import io.github.yeyuhl.backend.filter.RequestLogFilter;
-import io.github.yeyuhl.backend.service.AccountService;
 import io.github.yeyuhl.backend.utils.Const;
 import io.github.yeyuhl.backend.utils.JwtUtils;
+import io.github.yeyuhl.backend.utils.LoginFailureTracker;
+import io.github.yeyuhl.backend.utils.RefreshTokenUtils;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.authentication.InternalAuthenticationServiceException;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
 import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.core.Authentication;
-import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
 
@@ -40,10 +46,22 @@ public class SecurityConfiguration {
     JwtUtils jwtUtils;
 
     @Autowired
-    AccountService accountService;
+    RequestLogFilter requestLogFilter;
 
     @Autowired
-    RequestLogFilter requestLogFilter;
+    RefreshTokenUtils refreshTokenUtils;
+
+    @Autowired
+    RateLimitFilter rateLimitFilter;
+
+    @Autowired
+    LoginBulkheadFilter loginBulkheadFilter;
+
+    @Autowired
+    LoginFailureFilter loginFailureFilter;
+
+    @Autowired
+    LoginFailureTracker loginFailureTracker;
 
     @Bean
     public SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
@@ -51,12 +69,13 @@ public class SecurityConfiguration {
                 authorizeHttpRequests(conf -> conf
                         .requestMatchers("/api/auth/**", "/error").permitAll()
                         .requestMatchers("/swagger-ui/**", "/v3/api-docs/**").permitAll()
+                        .requestMatchers("/api/metrics").hasRole(Const.ROLE_ADMIN)
                         .anyRequest().hasAnyRole(Const.ROLE_DEFAULT)
                 )
                 .formLogin(conf -> conf
                         .loginProcessingUrl("/api/auth/login")
                         .successHandler(this::handleProcess)
-                        .failureHandler(this::handleProcess)
+                        .failureHandler(this::onLoginFailure)
                         .permitAll()
                 )
                 .logout(conf -> conf
@@ -71,6 +90,11 @@ public class SecurityConfiguration {
                 .sessionManagement(conf -> conf.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
                 .addFilterBefore(requestLogFilter, UsernamePasswordAuthenticationFilter.class)
                 .addFilterBefore(jwtAuthenticationFilter, RequestLogFilter.class)
+                // 接口限流需要用到JWT解析出的用户ID，同时要在登录处理之前执行
+                .addFilterAfter(rateLimitFilter, JwtAuthenticationFilter.class)
+                // 限流之后依次检查登录锁定与登录舱壁，被拒绝的请求不占用舱壁名额
+                .addFilterBefore(loginFailureFilter, UsernamePasswordAuthenticationFilter.class)
+                .addFilterBefore(loginBulkheadFilter, UsernamePasswordAuthenticationFilter.class)
                 .build();
     }
 
@@ -90,26 +114,43 @@ public class SecurityConfiguration {
         } else if (exceptionOrAuthentication instanceof Exception exception) {
             writer.write(RestBean.unauthorized(exception.getMessage()).asJsonString());
         } else if (exceptionOrAuthentication instanceof Authentication authentication) {
-            User user = (User) authentication.getPrincipal();
-            Account account = accountService.findAccountByNameOrEmail(user.getUsername());
-            String jwt = jwtUtils.createJwt(user, account.getUsername(), account.getId());
+            // 登录时查询到的账户信息已经携带在用户详细信息中，不需要再次查询数据库
+            AccountDetails user = (AccountDetails) authentication.getPrincipal();
+            loginFailureTracker.recordSuccess(request.getParameter("username"), request.getRemoteAddr());
+            String jwt = jwtUtils.createJwt(user, user.getName(), user.getId());
             if (jwt == null) {
-                writer.write(RestBean.forbidden("登录验证频繁，请稍后再试").asJsonString());
+                writer.write(jwtUtils.issuable(user.getId())
+                        ? RestBean.forbidden("登录验证频繁，请稍后再试").asJsonString()
+                        : RestBean.failure(503, "服务暂时不可用，请稍后再试").asJsonString());
             } else {
-                // 将Account转换为AuthorizeVO，只保留需要的字段
-                AuthorizeVO vo = account.asViewObject(AuthorizeVO.class, v -> {
-                    v.setToken(jwt);
-                    v.setExpire(jwtUtils.expireTime());
-                });
-                // 上面的转换实际上在造轮子，熟悉原理，实际开发中直接用下面的方法即可
-                // BeanUtils.copyProperties(account, vo);
+                AuthorizeVO vo = new AuthorizeVO();
+                vo.setUsername(user.getName());
+                vo.setRole(user.getRole());
+                vo.setToken(jwt);
+                vo.setExpire(jwtUtils.expireTime());
+                vo.setRefreshToken(refreshTokenUtils.createRefreshToken(user.getId(), user.getName(), user.getRole()));
+                vo.setRefreshExpire(refreshTokenUtils.expireTime());
                 writer.write(RestBean.success(vo).asJsonString());
             }
         }
     }
 
     /**
-     * 退出登录处理，需要将对于的JWT令牌进行失效处理
+     * 登录失败处理，记录失败次数后按统一方式返回
+     * 数据库等内部错误不是用户的问题，不计入失败次数
+     */
+    private void onLoginFailure(HttpServletRequest request,
+                                HttpServletResponse response,
+                                AuthenticationException exception) throws IOException {
+        if (!(exception instanceof InternalAuthenticationServiceException)) {
+            loginFailureTracker.recordFailure(request.getParameter("username"), request.getRemoteAddr());
+        }
+        this.handleProcess(request, response, exception);
+    }
+
+    /**
+     * 退出登录处理，需要将对于的JWT令牌进行失效处理，请求头携带刷新令牌时一并吊销
+     * 携带参数all=true时，吊销该用户在所有设备上的令牌
      */
     private void onLogoutSuccess(HttpServletRequest request,
                                  HttpServletResponse response,
@@ -117,7 +158,14 @@ public class SecurityConfiguration {
         response.setContentType("application/json;charset=utf-8");
         PrintWriter writer = response.getWriter();
         String authorization = request.getHeader("Authorization");
-        if (jwtUtils.invalidateJwt(authorization)) {
+        refreshTokenUtils.revoke(request.getHeader(Const.HEADER_REFRESH_TOKEN));
+        if (Boolean.parseBoolean(request.getParameter("all"))) {
+            JwtPrincipal principal = jwtUtils.resolveJwt(authorization);
+            if (principal != null && jwtUtils.invalidateAllJwt(principal.id())) {
+                writer.write(RestBean.success("已退出所有设备").asJsonString());
+                return;
+            }
+        } else if (jwtUtils.invalidateJwt(authorization)) {
             writer.write(RestBean.success("退出登录成功").asJsonString());
             return;
         }
@@ -1,17 +1,28 @@
 package io.github.yeyuhl.backend.config;
 
+import io.github.yeyuhl.backend.utils.jfr.PasswordEncoderEvent;
+import io.github.yeyuhl.backend.utils.metrics.Stage;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.List;
+
 /**
  * Web Configuration
  * 这里只是设置一个PasswordEncoder
  * 之所以要设置这个是因为在AccountServiceImpl中需要使用这个PasswordEncoder
  * 如果放到SecurityConfiguration中，而它又引用了AccountServiceImpl，AccountServiceImpl又引用了PasswordEncoder
  * 就会出现循环依赖的问题
+ * 另外对BCrypt校验与Controller返回值的JSON序列化进行计时，BCrypt同时产生JFR事件
  *
  * @author yeyuhl
  * @since 2023/10/05
@@ -20,6 +31,74 @@ import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 public class WebConfiguration implements WebMvcConfigurer {
     @Bean
     public PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
+        BCryptPasswordEncoder encoder = new BCryptPasswordEncoder();
+        return new PasswordEncoder() {
+            @Override
+            public String encode(CharSequence rawPassword) {
+                long start = System.nanoTime();
+                PasswordEncoderEvent event = new PasswordEncoderEvent();
+                event.begin();
+                try {
+                    return encoder.encode(rawPassword);
+                } finally {
+                    Stage.BCRYPT.recordSince(start);
+                    if (event.shouldCommit()) {
+                        event.operation = "encode";
+                        event.commit();
+                    }
+                }
+            }
+
+            @Override
+            public boolean matches(CharSequence rawPassword, String encodedPassword) {
+                long start = System.nanoTime();
+                PasswordEncoderEvent event = new PasswordEncoderEvent();
+                event.begin();
+                boolean matched = false;
+                try {
+                    matched = encoder.matches(rawPassword, encodedPassword);
+                    return matched;
+                } finally {
+                    Stage.BCRYPT.recordSince(start);
+                    if (event.shouldCommit()) {
+                        event.operation = "matches";
+                        event.matched = matched;
+                        event.commit();
+                    }
+                }
+            }
+
+            @Override
+            public boolean upgradeEncoding(String encodedPassword) {
+                return encoder.upgradeEncoding(encodedPassword);
+            }
+        };
+    }
+
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.replaceAll(converter -> converter instanceof MappingJackson2HttpMessageConverter jackson ?
+                new TimedJacksonConverter(jackson) : converter);
+    }
+
+    /**
+     * 记录序列化耗时的Jackson转换器
+     */
+    private static class TimedJacksonConverter extends MappingJackson2HttpMessageConverter {
+        TimedJacksonConverter(MappingJackson2HttpMessageConverter origin) {
+            super(origin.getObjectMapper());
+            this.setSupportedMediaTypes(origin.getSupportedMediaTypes());
+        }
+
+        @Override
+        protected void writeInternal(Object object, Type type, HttpOutputMessage outputMessage)
+                throws IOException, HttpMessageNotWritableException {
+            long start = System.nanoTime();
+            try {
+                super.writeInternal(object, type, outputMessage);
+            } finally {
+                Stage.JSON_WRITE.recordSince(start);
+            }
+        }
     }
 }
@@ -1,10 +1,14 @@
 package io.github.yeyuhl.backend.controller;
 
+import io.github.yeyuhl.backend.annotation.RateLimit;
 import io.github.yeyuhl.backend.entity.RestBean;
 import io.github.yeyuhl.backend.entity.vo.request.ConfirmResetVO;
 import io.github.yeyuhl.backend.entity.vo.request.EmailRegisterVO;
 import io.github.yeyuhl.backend.entity.vo.request.EmailResetVO;
+import io.github.yeyuhl.backend.entity.vo.response.AuthorizeVO;
 import io.github.yeyuhl.backend.service.AccountService;
+import io.github.yeyuhl.backend.utils.Const;
+import io.github.yeyuhl.backend.utils.RefreshTokenUtils;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.servlet.http.HttpServletRequest;
@@ -34,6 +38,9 @@ public class AuthorizeController {
     @Autowired
     AccountService accountService;
 
+    @Autowired
+    RefreshTokenUtils refreshTokenUtils;
+
     /**
      * 请求邮件验证码
      *
@@ -43,6 +50,7 @@ public class AuthorizeController {
      * @return 是否请求成功
      */
     @GetMapping("/ask-code")
+    @RateLimit(key = RateLimit.Key.EMAIL, limit = 5, period = 3600)
     @Operation(summary = "请求邮件验证码")
     public RestBean<Void> askVerifyCode(@RequestParam @Email String email,
                                         @RequestParam @Pattern(regexp = "(register|reset)") String type,
@@ -57,6 +65,7 @@ public class AuthorizeController {
      * @return 是否注册成功
      */
     @PostMapping("/register")
+    @RateLimit(limit = 10, period = 60, block = 300)
     @Operation(summary = "用户注册")
     public RestBean<Void> register(@RequestBody @Valid EmailRegisterVO info) {
         return this.messageHandle(() -> accountService.registerEmailAccount(info));
@@ -69,6 +78,7 @@ public class AuthorizeController {
      * @return 是否重置成功
      */
     @PostMapping("/reset-confirm")
+    @RateLimit(limit = 30, period = 60)
     @Operation(summary = "重置密码确认")
     public RestBean<Void> resetConfirm(@RequestBody @Valid ConfirmResetVO info) {
         return this.messageHandle(() -> accountService.resetConfirm(info));
@@ -81,11 +91,27 @@ public class AuthorizeController {
      * @return 是否操作成功
      */
     @PostMapping("/reset-password")
+    @RateLimit(limit = 10, period = 60, block = 300)
     @Operation(summary = "重置密码操作")
     public RestBean<Void> resetPassword(@RequestBody @Valid EmailResetVO info) {
         return this.messageHandle(() -> accountService.resetEmailAccountPassword(info));
     }
 
+    /**
+     * 使用刷新令牌换取新的访问令牌，刷新令牌同时轮换
+     * 刷新令牌有效期很长，放在请求头中传递，不会出现在请求参数与请求日志里
+     *
+     * @param token 刷新令牌
+     * @return 新的令牌信息
+     */
+    @PostMapping("/refresh")
+    @RateLimit(limit = 30, period = 60)
+    @Operation(summary = "刷新访问令牌")
+    public RestBean<AuthorizeVO> refresh(@RequestHeader(value = Const.HEADER_REFRESH_TOKEN, required = false) String token) {
+        AuthorizeVO vo = refreshTokenUtils.refresh(token);
+        return vo == null ? RestBean.unauthorized("登录已过期，请重新登录") : RestBean.success(vo);
+    }
+
     /**
      * 针对返回值为String作为错误信息的方法进行统一处理
      * Supplier<T>可以用于生成值，并且不需要指定任何参数
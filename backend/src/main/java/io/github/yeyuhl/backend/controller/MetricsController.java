@@ -0,0 +1,33 @@
+package io.github.yeyuhl.backend.controller;
+
+import io.github.yeyuhl.backend.utils.metrics.LatencyMetrics;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * 监控指标相关的controller
+ * 只有管理员可以访问，权限在SecurityConfiguration中配置
+ *
+ * @author yeyuhl
+ * @since 2023/11/06
+ */
+@RestController
+@Tag(name = "监控指标", description = "以Prometheus文本格式输出延迟分位数与各组件状态。")
+public class MetricsController {
+    @Autowired
+    LatencyMetrics latencyMetrics;
+
+    /**
+     * 输出全部监控指标
+     *
+     * @return Prometheus文本格式的指标
+     */
+    @GetMapping(value = "/api/metrics", produces = "text/plain;version=0.0.4;charset=utf-8")
+    @Operation(summary = "获取监控指标")
+    public String metrics() {
+        return latencyMetrics.scrape();
+    }
+}
@@ -2,6 +2,7 @@ package io.github.yeyuhl.backend.entity;
 
 import com.alibaba.fastjson2.JSONObject;
 import com.alibaba.fastjson2.JSONWriter;
+import io.github.yeyuhl.backend.utils.metrics.Stage;
 import org.slf4j.MDC;
 
 import java.util.Optional;
@@ -39,7 +40,10 @@ public record RestBean<T>(long id, int code, T data, String message) {
     public String asJsonString() {
         // JSONWriter.Feature.WriteNulls是一个JSONWriter类的枚举类型
         // 表示是否将null值写入JSON字符串。如果设置为true，则null值将写入JSON字符串
-        return JSONObject.toJSONString(this, JSONWriter.Feature.WriteNulls);
+        long start = System.nanoTime();
+        String json = JSONObject.toJSONString(this, JSONWriter.Feature.WriteNulls);
+        Stage.JSON_WRITE.recordSince(start);
+        return json;
     }
 
     /**
@@ -0,0 +1,32 @@
+package io.github.yeyuhl.backend.entity.dto;
+
+import lombok.Getter;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.userdetails.User;
+
+import java.util.Collection;
+
+/**
+ * 登录时使用的用户详细信息
+ * 在User的基础上携带查询数据库时得到的账户信息，登录成功后签发令牌与构造响应不需要再次查询数据库
+ * 继承的username仍然是用户输入的用户名或邮箱，name为账户真正的用户名
+ *
+ * @author yeyuhl
+ * @since 2023/11/10
+ */
+@Getter
+public class AccountDetails extends User {
+    private final int id;
+    private final String name;
+    private final String email;
+    private final String role;
+
+    public AccountDetails(String username, String password, Collection<? extends GrantedAuthority> authorities,
+                          Account account) {
+        super(username, password, authorities);
+        this.id = account.getId();
+        this.name = account.getUsername();
+        this.email = account.getEmail();
+        this.role = account.getRole();
+    }
+}
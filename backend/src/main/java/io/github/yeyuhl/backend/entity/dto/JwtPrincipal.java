@@ -0,0 +1,18 @@
+package io.github.yeyuhl.backend.entity.dto;
+
+import java.util.List;
+
+/**
+ * 从已验证的Jwt令牌中解析出的用户身份信息
+ *
+ * @param id          用户ID
+ * @param username    用户名
+ * @param authorities 用户权限
+ * @param jti         令牌ID
+ * @param expiresAt   令牌过期时间，毫秒时间戳
+ * @param epoch       令牌签发时用户的吊销纪元
+ * @author yeyuhl
+ * @since 2023/10/21
+ */
+public record JwtPrincipal(int id, String username, List<String> authorities, String jti, long expiresAt, long epoch) {
+}
@@ -0,0 +1,25 @@
+package io.github.yeyuhl.backend.entity.dto;
+
+import java.util.Map;
+
+/**
+ * 一次请求的日志记录，请求线程只负责采集原始数据，格式化由后台日志线程完成
+ *
+ * @param reqId     请求ID
+ * @param path      请求路径
+ * @param method    请求方法
+ * @param address   远程IP地址
+ * @param userId    用户ID，未验证时为null
+ * @param principal 已验证的用户身份，未验证时为null
+ * @param params    请求参数
+ * @param status    响应状态码
+ * @param elapsed   处理耗时，以毫秒为单位
+ * @param body      截取的响应内容，未被采样的正常响应为null
+ * @param truncated 响应内容是否超过截取上限
+ * @author yeyuhl
+ * @since 2023/11/04
+ */
+public record RequestLog(long reqId, String path, String method, String address, Object userId, Object principal,
+                         Map<String, String[]> params, int status, long elapsed, byte[] body,
+                         boolean truncated) {
+}
@@ -16,4 +16,6 @@ public class AuthorizeVO {
     String role;
     String token;
     Date expire;
+    String refreshToken;
+    Date refreshExpire;
 }
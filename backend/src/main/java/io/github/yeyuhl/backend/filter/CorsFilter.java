@@ -46,7 +46,7 @@ public class CorsFilter extends HttpFilter {
     private void addCorsHeader(HttpServletRequest request, HttpServletResponse response) {
         response.addHeader("Access-Control-Allow-Origin", this.resolveOrigin(request));
         response.addHeader("Access-Control-Allow-Methods", this.resolveMethod());
-        response.addHeader("Access-Control-Allow-Headers", "Authorization, Content-Type");
+        response.addHeader("Access-Control-Allow-Headers", "Authorization, Content-Type, " + Const.HEADER_REFRESH_TOKEN);
         if (credentials) {
             response.addHeader("Access-Control-Allow-Credentials", "true");
         }
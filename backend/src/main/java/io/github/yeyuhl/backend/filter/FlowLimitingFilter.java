@@ -3,6 +3,10 @@ package io.github.yeyuhl.backend.filter;
 import io.github.yeyuhl.backend.entity.RestBean;
 import io.github.yeyuhl.backend.utils.Const;
 import io.github.yeyuhl.backend.utils.FlowUtils;
+import io.github.yeyuhl.backend.utils.HybridFlowLimiter;
+import io.github.yeyuhl.backend.utils.IpKey;
+import io.github.yeyuhl.backend.utils.SubnetLimiter;
+import io.github.yeyuhl.backend.utils.limit.LimitAlgorithm;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpFilter;
@@ -12,14 +16,13 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.annotation.Order;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
 import java.io.PrintWriter;
 
 /**
- * 流量控制过滤器，防止用户高频请求接口，借助Redis进行限流
+ * 流量控制过滤器，防止用户高频请求接口，借助本地令牌桶与Redis进行两级限流
  * 当然可以直接用Sentinel
  *
  * @author yeyuhl
@@ -29,8 +32,6 @@ import java.io.PrintWriter;
 @Component
 @Order(Const.ORDER_FLOW_LIMIT)
 public class FlowLimitingFilter extends HttpFilter {
-    @Autowired
-    StringRedisTemplate redisTemplate;
     /**
      * 限定时间内的最大请求次数
      */
@@ -46,10 +47,21 @@ public class FlowLimitingFilter extends HttpFilter {
      */
     @Value("${spring.web.flow.block}")
     int block;
+    /**
+     * 限流算法
+     */
+    @Value("${spring.web.flow.algorithm}")
+    LimitAlgorithm algorithm;
 
     @Autowired
     FlowUtils utils;
 
+    @Autowired
+    HybridFlowLimiter limiter;
+
+    @Autowired
+    SubnetLimiter subnetLimiter;
+
     @Override
     protected void doFilter(HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws IOException, ServletException {
         String address = request.getRemoteAddr();
@@ -68,13 +80,33 @@ public class FlowLimitingFilter extends HttpFilter {
      * @return 是否操作成功
      */
     private boolean tryCount(String address) {
-        synchronized (address.intern()) {
-            if (Boolean.TRUE.equals(redisTemplate.hasKey(Const.FLOW_LIMIT_BLOCK + address)))
-                return false;
-            String counterKey = Const.FLOW_LIMIT_COUNTER + address;
-            String blockKey = Const.FLOW_LIMIT_BLOCK + address;
-            return utils.limitPeriodCheck(counterKey, blockKey, block, limit, period);
+        // 先按网段汇总计数，网段被封禁时不再为其中的地址访问Redis
+        IpKey prefix = subnetLimiter.prefixOf(address);
+        if (prefix != null && !subnetLimiter.tryCount(prefix)) return false;
+        if (limiter.isBlocked(address)) return false;
+        // 离配额较远时直接在本地放行，计数由限流器批量上报
+        if (limiter.tryAcquire(address)) return true;
+        // 计数脚本在Redis中原子执行，同一地址的并发请求各自检查即可，无需在本地互斥
+        return this.checkRedis(address, prefix);
+    }
+
+    /**
+     * 通过Redis对指定IP地址计数，超限时在本地记录封禁
+     *
+     * @param address 请求IP地址
+     * @param prefix  地址所在网段，可能为null
+     * @return 是否通过限流检查
+     */
+    private boolean checkRedis(String address, IpKey prefix) {
+        String counterKey = Const.FLOW_LIMIT_COUNTER + address;
+        String blockKey = Const.FLOW_LIMIT_BLOCK + address;
+        boolean allowed = utils.limitPeriodCheck(algorithm, counterKey, blockKey, block, limit, period);
+        if (!allowed) {
+            limiter.block(address);
+            // 网段内被封禁的地址达到一定数量后，升级为封禁整个网段
+            if (prefix != null) subnetLimiter.trip(prefix);
         }
+        return allowed;
     }
 
     /**
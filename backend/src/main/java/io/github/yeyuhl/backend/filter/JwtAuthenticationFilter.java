@@ -1,7 +1,8 @@
 package io.github.yeyuhl.backend.filter;
 
-import com.auth0.jwt.interfaces.DecodedJWT;
+import io.github.yeyuhl.backend.entity.dto.JwtPrincipal;
 import io.github.yeyuhl.backend.utils.JwtUtils;
+import io.github.yeyuhl.backend.utils.metrics.Stage;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -32,15 +33,17 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
     protected void doFilterInternal(HttpServletRequest request,
                                     HttpServletResponse response,
                                     FilterChain filterChain) throws ServletException, IOException {
-        DecodedJWT jwt = jwtUtils.resolveJwt(request.getHeader("Authorization"));
-        if (jwt != null) {
-            UserDetails user = jwtUtils.toUser(jwt);
+        long start = System.nanoTime();
+        JwtPrincipal principal = jwtUtils.resolveJwt(request.getHeader("Authorization"));
+        Stage.JWT_VERIFY.recordSince(start);
+        if (principal != null) {
+            UserDetails user = jwtUtils.toUser(principal);
             // UsernamePasswordAuthenticationToken是用于封装用户名密码认证信息的一个类
             UsernamePasswordAuthenticationToken token
                     = new UsernamePasswordAuthenticationToken(user, null, user.getAuthorities());
             token.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
             SecurityContextHolder.getContext().setAuthentication(token);
-            request.setAttribute("id", jwtUtils.toId(jwt));
+            request.setAttribute("id", principal.id());
         }
         filterChain.doFilter(request, response);
     }
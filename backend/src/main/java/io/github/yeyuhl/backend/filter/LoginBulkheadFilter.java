@@ -0,0 +1,108 @@
+package io.github.yeyuhl.backend.filter;
+
+import io.github.yeyuhl.backend.entity.RestBean;
+import io.github.yeyuhl.backend.utils.AdaptiveBulkhead;
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 登录舱壁过滤器
+ * 登录需要执行BCrypt校验，会占满CPU，这里限制同时进行的登录数量，上限根据登录耗时自适应调整，
+ * 超出的请求短暂排队，超时或队列已满时快速返回503，避免挤占其他接口的Tomcat线程与CPU
+ *
+ * @author yeyuhl
+ * @since 2023/11/02
+ */
+@Component
+public class LoginBulkheadFilter extends OncePerRequestFilter {
+    /**
+     * 初始并发上限
+     */
+    @Value("${spring.security.login.bulkhead.initial}")
+    int initial;
+
+    /**
+     * 最小并发上限
+     */
+    @Value("${spring.security.login.bulkhead.min}")
+    int min;
+
+    /**
+     * 最大并发上限
+     */
+    @Value("${spring.security.login.bulkhead.max}")
+    int max;
+
+    /**
+     * 最大排队数
+     */
+    @Value("${spring.security.login.bulkhead.queue}")
+    int queue;
+
+    /**
+     * 最长排队时间，以毫秒为单位
+     */
+    @Value("${spring.security.login.bulkhead.timeout}")
+    long timeout;
+
+    private AdaptiveBulkhead bulkhead;
+
+    @PostConstruct
+    public void init() {
+        this.bulkhead = new AdaptiveBulkhead(initial, min, max, queue);
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !("POST".equals(request.getMethod()) && "/api/auth/login".equals(request.getServletPath()));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request,
+                                    HttpServletResponse response,
+                                    FilterChain filterChain) throws ServletException, IOException {
+        if (!bulkhead.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+            this.writeBusyMessage(response);
+            return;
+        }
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            filterChain.doFilter(request, response);
+            success = true;
+        } finally {
+            bulkhead.release(System.nanoTime() - start, success);
+        }
+    }
+
+    /**
+     * @return 登录舱壁，用于读取排队长度与拒绝次数等指标
+     */
+    public AdaptiveBulkhead bulkhead() {
+        return bulkhead;
+    }
+
+    /**
+     * 为响应编写拦截内容，提示用户稍后重试
+     *
+     * @param response 响应
+     * @throws IOException 可能的异常
+     */
+    private void writeBusyMessage(HttpServletResponse response) throws IOException {
+        response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        response.setHeader("Retry-After", "1");
+        response.setContentType("application/json;charset=utf-8");
+        PrintWriter writer = response.getWriter();
+        writer.write(RestBean.failure(503, "登录人数过多，请稍后再试").asJsonString());
+    }
+}
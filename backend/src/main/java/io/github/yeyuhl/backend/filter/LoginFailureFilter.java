@@ -0,0 +1,59 @@
+package io.github.yeyuhl.backend.filter;
+
+import io.github.yeyuhl.backend.entity.RestBean;
+import io.github.yeyuhl.backend.utils.LoginFailureTracker;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * 登录锁定过滤器
+ * 账户或IP地址因多次登录失败被锁定时，在loadUserByUsername查询数据库与BCrypt校验之前直接拒绝
+ *
+ * @author yeyuhl
+ * @since 2023/11/03
+ */
+@Component
+public class LoginFailureFilter extends OncePerRequestFilter {
+    @Autowired
+    LoginFailureTracker tracker;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !("POST".equals(request.getMethod()) && "/api/auth/login".equals(request.getServletPath()));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request,
+                                    HttpServletResponse response,
+                                    FilterChain filterChain) throws ServletException, IOException {
+        long remaining = tracker.lockRemaining(request.getParameter("username"), request.getRemoteAddr());
+        if (remaining > 0) {
+            this.writeLockedMessage(response, remaining);
+            return;
+        }
+        filterChain.doFilter(request, response);
+    }
+
+    /**
+     * 为响应编写拦截内容，无论账户是否存在，提示内容都相同
+     *
+     * @param response  响应
+     * @param remaining 剩余锁定时间
+     * @throws IOException 可能的异常
+     */
+    private void writeLockedMessage(HttpServletResponse response, long remaining) throws IOException {
+        response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+        response.setHeader("Retry-After", String.valueOf(remaining));
+        response.setContentType("application/json;charset=utf-8");
+        PrintWriter writer = response.getWriter();
+        writer.write(RestBean.forbidden("登录失败次数过多，请" + remaining + "秒后再试").asJsonString());
+    }
+}
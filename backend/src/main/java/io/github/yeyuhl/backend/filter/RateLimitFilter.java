@@ -0,0 +1,95 @@
+package io.github.yeyuhl.backend.filter;
+
+import io.github.yeyuhl.backend.entity.RestBean;
+import io.github.yeyuhl.backend.utils.Const;
+import io.github.yeyuhl.backend.utils.FlowUtils;
+import io.github.yeyuhl.backend.utils.RateLimitRoutes;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+
+/**
+ * 接口级别的限流过滤器
+ * FlowLimitingFilter对所有请求按IP地址统一限流，这里再根据路由表对具体接口执行各自的限流策略，
+ * 放在SpringSecurity过滤器链中JwtAuthenticationFilter之后，因此可以按用户ID限流，同时位于登录处理之前
+ *
+ * @author yeyuhl
+ * @since 2023/10/30
+ */
+@Component
+public class RateLimitFilter extends OncePerRequestFilter {
+    @Autowired
+    RateLimitRoutes routes;
+
+    @Autowired
+    FlowUtils flowUtils;
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request,
+                                    HttpServletResponse response,
+                                    FilterChain filterChain) throws ServletException, IOException {
+        List<RateLimitRoutes.Route> matched = routes.match(request.getServletPath(), request.getMethod());
+        for (RateLimitRoutes.Route route : matched) {
+            if (!this.tryCount(route, request)) {
+                this.writeBlockMessage(response);
+                return;
+            }
+        }
+        filterChain.doFilter(request, response);
+    }
+
+    /**
+     * 按路由的限流策略对请求计数
+     *
+     * @param route   限流路由
+     * @param request 请求
+     * @return 是否通过限流检查
+     */
+    private boolean tryCount(RateLimitRoutes.Route route, HttpServletRequest request) {
+        String subject = route.id() + ":" + this.resolveKey(route, request);
+        return flowUtils.limitPeriodCheck(route.algorithm(), Const.FLOW_ROUTE_COUNTER + subject,
+                Const.FLOW_ROUTE_BLOCK + subject, route.block(), route.limit(), route.period());
+    }
+
+    /**
+     * 获取限流对象，取不到时回落到IP地址
+     *
+     * @param route   限流路由
+     * @param request 请求
+     * @return 限流对象
+     */
+    private String resolveKey(RateLimitRoutes.Route route, HttpServletRequest request) {
+        switch (route.key()) {
+            case USER -> {
+                Object id = request.getAttribute("id");
+                if (id != null) return "user:" + id;
+            }
+            case EMAIL -> {
+                String email = request.getParameter("email");
+                if (email != null && !email.isBlank()) return "email:" + email.trim().toLowerCase();
+            }
+        }
+        return "ip:" + request.getRemoteAddr();
+    }
+
+    /**
+     * 为响应编写拦截内容，提示用户操作频繁
+     *
+     * @param response 响应
+     * @throws IOException 可能的异常
+     */
+    private void writeBlockMessage(HttpServletResponse response) throws IOException {
+        response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+        response.setContentType("application/json;charset=utf-8");
+        PrintWriter writer = response.getWriter();
+        writer.write(RestBean.forbidden("操作频繁，请稍后再试").asJsonString());
+    }
+}
@@ -1,38 +1,51 @@
 package io.github.yeyuhl.backend.filter;
 
-import com.alibaba.fastjson2.JSONObject;
-
+import io.github.yeyuhl.backend.entity.dto.RequestLog;
 import io.github.yeyuhl.backend.utils.Const;
+import io.github.yeyuhl.backend.utils.LogCapturePolicies;
+import io.github.yeyuhl.backend.utils.RequestLogWriter;
 import io.github.yeyuhl.backend.utils.SnowflakeIdGenerator;
+import io.github.yeyuhl.backend.utils.TeeResponseWrapper;
+import io.github.yeyuhl.backend.utils.metrics.LatencyMetrics;
 import jakarta.annotation.Resource;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
-import lombok.extern.slf4j.Slf4j;
 import org.slf4j.MDC;
+import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
-import org.springframework.security.core.userdetails.User;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
-import org.springframework.web.util.ContentCachingResponseWrapper;
+import org.springframework.web.servlet.HandlerMapping;
 
 import java.io.IOException;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 请求日志过滤器，用于记录所有用户请求信息
+ * 请求线程上只采集原始数据，格式化与写入交给RequestLogWriter的后台线程
  *
  * @author yeyuhl
  * @since 2023/10/16
  */
-@Slf4j
 @Component
 public class RequestLogFilter extends OncePerRequestFilter {
 
     @Resource
     SnowflakeIdGenerator generator;
 
+    @Resource
+    RequestLogWriter writer;
+
+    @Resource
+    LogCapturePolicies policies;
+
+    @Resource
+    LatencyMetrics latencyMetrics;
+
     private final Set<String> ignores = Set.of("/swagger-ui", "/v3/api-docs");
 
     @Override
@@ -40,12 +53,21 @@ public class RequestLogFilter extends OncePerRequestFilter {
         if (this.isIgnoreUrl(request.getServletPath())) {
             filterChain.doFilter(request, response);
         } else {
-            long startTime = System.currentTimeMillis();
-            this.logRequestStart(request);
-            ContentCachingResponseWrapper wrapper = new ContentCachingResponseWrapper(response);
-            filterChain.doFilter(request, wrapper);
-            this.logRequestEnd(wrapper, startTime);
-            wrapper.copyBodyToResponse();
+            long startTime = System.nanoTime();
+            long reqId = generator.nextId();
+            MDC.put("reqId", String.valueOf(reqId));
+            LogCapturePolicies.Policy policy = policies.match(request.getServletPath());
+            TeeResponseWrapper wrapper = new TeeResponseWrapper(response, policy.sample(), policy.maxBytes());
+            boolean failed = true;
+            try {
+                filterChain.doFilter(request, wrapper);
+                wrapper.finish();
+                failed = false;
+            } finally {
+                // 异常会交给容器生成错误页，此时响应的状态码还没有设置，按500记录
+                int status = failed ? HttpServletResponse.SC_INTERNAL_SERVER_ERROR : wrapper.getStatus();
+                this.submitLog(request, wrapper, reqId, startTime, status);
+            }
         }
     }
 
@@ -63,38 +85,26 @@ public class RequestLogFilter extends OncePerRequestFilter {
     }
 
     /**
-     * 请求结束时的日志打印，包含处理耗时以及响应结果
+     * 请求结束时采集请求信息、对应用户以及截取的响应内容，提交给后台线程写入日志
+     * 请求对象在请求结束后会被容器回收复用，因此参数表需要复制一份
      *
-     * @param wrapper   用于读取响应结果的包装类
-     * @param startTime 起始时间
+     * @param request   请求
+     * @param wrapper   截取响应内容的包装类
+     * @param reqId     请求ID
+     * @param startTime 起始时间，System.nanoTime()的取值
+     * @param status    响应状态码
      */
-    public void logRequestEnd(ContentCachingResponseWrapper wrapper, long startTime) {
-        long time = System.currentTimeMillis() - startTime;
-        int status = wrapper.getStatus();
-        String content = status != 200 ?
-                status + " 错误" : new String(wrapper.getContentAsByteArray());
-        log.info("请求处理耗时: {}ms | 响应结果: {}", time, content);
-    }
-
-    /**
-     * 请求开始时的日志打印，包含请求全部信息，以及对应用户角色
-     *
-     * @param request 请求
-     */
-    public void logRequestStart(HttpServletRequest request) {
-        long reqId = generator.nextId();
-        MDC.put("reqId", String.valueOf(reqId));
-        JSONObject object = new JSONObject();
-        request.getParameterMap().forEach((k, v) -> object.put(k, v.length > 0 ? v[0] : null));
+    private void submitLog(HttpServletRequest request, TeeResponseWrapper wrapper, long reqId, long startTime, int status) {
+        long elapsed = System.nanoTime() - startTime;
+        // 优先使用Controller映射的路径模式，SpringSecurity直接处理的登录等接口没有映射，使用原始路径
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        latencyMetrics.recordRequest(pattern == null ? request.getServletPath() : pattern.toString(),
+                request.getMethod(), status, elapsed);
         Object id = request.getAttribute(Const.ATTR_USER_ID);
-        if (id != null) {
-            User user = (User) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
-            log.info("请求URL: \"{}\" ({}) | 远程IP地址: {} │ 身份: {} (UID: {}) | 角色: {} | 请求参数列表: {}",
-                    request.getServletPath(), request.getMethod(), request.getRemoteAddr(),
-                    user.getUsername(), id, user.getAuthorities(), object);
-        } else {
-            log.info("请求URL: \"{}\" ({}) | 远程IP地址: {} │ 身份: 未验证 | 请求参数列表: {}",
-                    request.getServletPath(), request.getMethod(), request.getRemoteAddr(), object);
-        }
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        writer.submit(new RequestLog(reqId, request.getServletPath(), request.getMethod(), request.getRemoteAddr(),
+                id, authentication == null ? null : authentication.getPrincipal(),
+                Map.copyOf(request.getParameterMap()), status, TimeUnit.NANOSECONDS.toMillis(elapsed),
+                wrapper.captured(), wrapper.truncated()));
     }
-}
\ No newline at end of file
+}
@@ -1,6 +1,7 @@
 package io.github.yeyuhl.backend.listener;
 
 import jakarta.annotation.Resource;
+import io.github.yeyuhl.backend.utils.jfr.MailSendEvent;
 import org.springframework.amqp.rabbit.annotation.RabbitHandler;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.beans.factory.annotation.Value;
@@ -32,6 +33,27 @@ public class MailQueueListener {
      */
     @RabbitHandler
     public void sendMailMessage(Map<String, Object> data) {
+        MailSendEvent event = new MailSendEvent();
+        event.begin();
+        String outcome = "error";
+        try {
+            outcome = this.send(data) ? "sent" : "skipped";
+        } finally {
+            if (event.shouldCommit()) {
+                event.type = String.valueOf(data.get("type"));
+                event.outcome = outcome;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * 根据邮件数据构造并发送邮件
+     *
+     * @param data 邮件数据
+     * @return 是否发送，类型未知时不发送
+     */
+    private boolean send(Map<String, Object> data) {
         String email = data.get("email").toString();
         Integer code = (Integer) data.get("code");
         SimpleMailMessage message = switch (data.get("type").toString()) {
@@ -44,9 +66,10 @@ public class MailQueueListener {
             default -> null;
         };
         if (message == null) {
-            return;
+            return false;
         }
         sender.send(message);
+        return true;
     }
 
     /**
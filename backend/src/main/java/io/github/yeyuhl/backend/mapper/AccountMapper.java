@@ -3,6 +3,14 @@ package io.github.yeyuhl.backend.mapper;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import io.github.yeyuhl.backend.entity.dto.Account;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Options;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.ResultType;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.mapping.ResultSetType;
+import org.apache.ibatis.session.ResultHandler;
+
+import java.util.Map;
 
 /**
  * AccountMapper
@@ -12,4 +20,33 @@ import org.apache.ibatis.annotations.Mapper;
  */
 @Mapper
 public interface AccountMapper extends BaseMapper<Account> {
+    /**
+     * 通过用户名查找用户，直接命中unique_username索引
+     * 查询列的顺序与Account构造方法的参数顺序一致
+     *
+     * @param username 用户名
+     * @return 用户，不存在时为null
+     */
+    @Select("SELECT id, username, password, email, role, register_time FROM db_account WHERE username = #{username} LIMIT 1")
+    Account selectByUsername(@Param("username") String username);
+
+    /**
+     * 通过邮箱查找用户，直接命中unique_email索引
+     *
+     * @param email 邮箱
+     * @return 用户，不存在时为null
+     */
+    @Select("SELECT id, username, password, email, role, register_time FROM db_account WHERE email = #{email} LIMIT 1")
+    Account selectByEmail(@Param("email") String email);
+
+    /**
+     * 流式遍历全部用户的用户名与邮箱，用于加载布隆过滤器
+     * fetchSize为Integer.MIN_VALUE时MySQL驱动逐行返回结果，不会把整张表读入内存
+     *
+     * @param handler 逐行处理结果，每行为 username、email 两列
+     */
+    @Select("SELECT username, email FROM db_account")
+    @Options(resultSetType = ResultSetType.FORWARD_ONLY, fetchSize = Integer.MIN_VALUE)
+    @ResultType(Map.class)
+    void streamNames(ResultHandler<Map<String, Object>> handler);
 }
@@ -2,16 +2,25 @@ package io.github.yeyuhl.backend.service.impl;
 
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import io.github.yeyuhl.backend.entity.dto.Account;
+import io.github.yeyuhl.backend.entity.dto.AccountDetails;
 import io.github.yeyuhl.backend.entity.vo.request.ConfirmResetVO;
 import io.github.yeyuhl.backend.entity.vo.request.EmailRegisterVO;
 import io.github.yeyuhl.backend.entity.vo.request.EmailResetVO;
 import io.github.yeyuhl.backend.mapper.AccountMapper;
 import io.github.yeyuhl.backend.service.AccountService;
+import io.github.yeyuhl.backend.utils.AccountBloomFilter;
+import io.github.yeyuhl.backend.utils.AccountCache;
 import io.github.yeyuhl.backend.utils.Const;
 import io.github.yeyuhl.backend.utils.FlowUtils;
+import io.github.yeyuhl.backend.utils.JwtUtils;
+import io.github.yeyuhl.backend.utils.KeyedGuard;
+import io.github.yeyuhl.backend.utils.jfr.AccountLookupEvent;
+import io.github.yeyuhl.backend.utils.limit.LimitAlgorithm;
+import io.github.yeyuhl.backend.utils.metrics.Stage;
 import org.springframework.amqp.core.AmqpTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.security.core.userdetails.User;
 import org.springframework.security.core.userdetails.UserDetails;
@@ -36,6 +45,9 @@ public class AccountServiceImpl extends ServiceImpl<AccountMapper, Account> impl
     @Value("${spring.web.verify.mail-limit}")
     int verifyLimit;
 
+    @Value("${spring.web.verify.algorithm}")
+    LimitAlgorithm verifyAlgorithm;
+
     @Autowired
     StringRedisTemplate redisTemplate;
 
@@ -48,9 +60,21 @@ public class AccountServiceImpl extends ServiceImpl<AccountMapper, Account> impl
     @Autowired
     FlowUtils flowUtils;
 
+    @Autowired
+    JwtUtils jwtUtils;
+
+    @Autowired
+    AccountCache accountCache;
+
+    @Autowired
+    AccountBloomFilter accountBloomFilter;
+
+    private final KeyedGuard verifyGuard = new KeyedGuard();
+
 
     /**
-     * 从数据库中通过用户名或者邮箱查找用户详细信息
+     * 从数据库中通过用户名或者邮箱查找用户详细信息，同时携带账户信息供登录成功后使用
+     * 缓存中的密码摘要还未过期时不再查询数据库
      *
      * @param username 用户名或者邮箱
      * @return 用户详细信息
@@ -58,22 +82,28 @@ public class AccountServiceImpl extends ServiceImpl<AccountMapper, Account> impl
      */
     @Override
     public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
-        Account account = this.findAccountByNameOrEmail(username);
+        Account account = accountCache.getWithPassword(username);
+        if (account == null) {
+            long stamp = accountCache.stamp();
+            account = this.queryAccount(username);
+            if (account != null) accountCache.put(account, stamp);
+        }
         if (account == null) {
             throw new UsernameNotFoundException("用户名或密码错误");
         }
-        return User
+        UserDetails user = User
                 // 不能使用account的username，因为这个username是用户输入的，可能是邮箱
                 .withUsername(username)
                 .password(account.getPassword())
                 .roles(account.getRole())
                 .build();
+        return new AccountDetails(user.getUsername(), user.getPassword(), user.getAuthorities(), account);
     }
 
     @Override
     public String registerEmailVerifyCode(String type, String email, String address) {
-        // String的intern方法会将字符串放入常量池中，如果常量池中已经存在该字符串，则返回常量池中的字符串
-        synchronized (address.intern()) {
+        // 同一地址的并发请求直接快速失败，而不是排队等待Redis与RabbitMQ调用
+        return verifyGuard.tryExecute(address, () -> {
             if (!this.verifyLimit(address)) {
                 return "请求过于频繁，请稍后再试";
             }
@@ -83,7 +113,7 @@ public class AccountServiceImpl extends ServiceImpl<AccountMapper, Account> impl
             rabbitTemplate.convertAndSend(Const.MQ_MAIL, data);
             redisTemplate.opsForValue().set(Const.VERIFY_EMAIL_DATA + email, String.valueOf(code), 5, TimeUnit.MINUTES);
             return null;
-        }
+        }, () -> "请求过于频繁，请稍后再试");
     }
 
     @Override
@@ -99,12 +129,25 @@ public class AccountServiceImpl extends ServiceImpl<AccountMapper, Account> impl
         if (this.existsAccountByEmail(email)) {
             return "该邮箱地址已被注册";
         }
+        if (this.existsAccountByUsername(info.getUsername())) {
+            return "该用户名已被注册";
+        }
         String password = passwordEncoder.encode(info.getPassword());
         Account account = new Account(null, info.getUsername(), password, email, Const.ROLE_DEFAULT, new Date());
-        if (!this.save(account)) {
+        boolean saved;
+        try {
+            saved = this.save(account);
+        } catch (DuplicateKeyException e) {
+            // 并发注册，或只有大小写不同的邮箱与用户名，由数据库的唯一索引拦下
+            return "该邮箱地址或用户名已被注册";
+        }
+        if (!saved) {
             return "注册失败，请稍后再试";
         } else {
             this.deleteEmailVerifyCode(email);
+            accountBloomFilter.add(account.getUsername(), email);
+            // 清除其他节点可能残留的同名账户缓存
+            accountCache.invalidate(account.getId(), account.getUsername(), email);
             return null;
         }
     }
@@ -116,10 +159,20 @@ public class AccountServiceImpl extends ServiceImpl<AccountMapper, Account> impl
             return verify;
         }
         String email = info.getEmail();
+        Account account = this.findAccountByNameOrEmail(email);
+        // 先吊销该用户此前签发的所有令牌，Redis不可用时无法吊销，不修改密码，避免旧令牌在重置后仍然有效
+        if (account != null && !jwtUtils.invalidateAllJwt(account.getId())) {
+            return "服务暂时不可用，请稍后再试";
+        }
         String password = passwordEncoder.encode(info.getPassword());
         boolean update = this.update().eq("email", email).set("password", password).update();
         if (update) {
             this.deleteEmailVerifyCode(email);
+            if (account != null) {
+                // 清除各节点缓存的旧密码摘要，并再次提升纪元，吊销第一次提升之后、密码修改之前用旧密码签发的令牌，失败时在Redis恢复后重试
+                accountCache.invalidate(account.getId(), account.getUsername(), email);
+                jwtUtils.invalidateAllJwtOrRetry(account.getId());
+            }
         }
         return update ? null : "重置密码失败，请稍后再试";
     }
@@ -127,7 +180,7 @@ public class AccountServiceImpl extends ServiceImpl<AccountMapper, Account> impl
     @Override
     public String resetConfirm(ConfirmResetVO info) {
         String email = info.getEmail();
-        if (!this.existsAccountByEmail(email)) {
+        if (!this.registeredEmail(email)) {
             return "该邮箱地址未注册";
         }
         String code = this.getEmailVerifyCode(email);
@@ -140,13 +193,56 @@ public class AccountServiceImpl extends ServiceImpl<AccountMapper, Account> impl
         return null;
     }
 
+    /**
+     * 通过用户名或者邮箱查找用户，优先从缓存中获取，返回的账户不一定包含密码摘要
+     *
+     * @param text 用户名或邮件
+     * @return 账户实体，不存在时为null
+     */
     public Account findAccountByNameOrEmail(String text) {
-        // 比较text与username或者email是否相等
-        return this.query()
-                .eq("username", text)
-                .or()
-                .eq("email", text)
-                .one();
+        if (text == null) return null;
+        Account account = accountCache.get(text);
+        if (account != null) return account;
+        long stamp = accountCache.stamp();
+        account = this.queryAccount(text);
+        if (account != null) accountCache.put(account, stamp);
+        return account;
+    }
+
+    /**
+     * 从数据库中通过用户名或者邮箱查找用户
+     * 不再使用 username = ? OR email = ? 查询，而是根据输入的格式直接走对应的唯一索引：
+     * 注册时用户名只能包含字母、数字与汉字，包含@的输入只可能是邮箱，其余输入只可能是用户名，
+     * 只有按邮箱查不到时才再按用户名查一次，兼容校验规则之前注册的用户名
+     *
+     * @param text 用户名或邮件
+     * @return 账户实体，不存在时为null
+     */
+    private Account queryAccount(String text) {
+        long start = System.nanoTime();
+        AccountLookupEvent event = new AccountLookupEvent();
+        event.begin();
+        Account account = null;
+        String outcome = "error";
+        boolean byEmail = text.indexOf('@') >= 0;
+        try {
+            if (byEmail) {
+                account = baseMapper.selectByEmail(text);
+                if (account == null) account = baseMapper.selectByUsername(text);
+            } else {
+                account = baseMapper.selectByUsername(text);
+            }
+            outcome = "ok";
+            return account;
+        } finally {
+            Stage.DB_LOOKUP.recordSince(start);
+            if (event.shouldCommit()) {
+                event.byEmail = byEmail;
+                event.found = account != null;
+                event.outcome = outcome;
+                event.commit();
+            }
+        }
     }
 
 
@@ -158,7 +254,7 @@ public class AccountServiceImpl extends ServiceImpl<AccountMapper, Account> impl
      */
     private boolean verifyLimit(String address) {
         String key = Const.VERIFY_EMAIL_LIMIT + address;
-        return flowUtils.limitOnceCheck(key, verifyLimit);
+        return flowUtils.limitOnceCheck(verifyAlgorithm, key, verifyLimit);
     }
 
     /**
@@ -172,13 +268,57 @@ public class AccountServiceImpl extends ServiceImpl<AccountMapper, Account> impl
     }
 
     /**
-     * 检查邮箱是否已经被注册
+     * 检查邮箱是否已经被注册，布隆过滤器判定一定不存在时不再查询数据库
      *
      * @param email 邮箱地址
      * @return 是否已经被注册
      */
     private boolean existsAccountByEmail(String email) {
-        return this.query().eq("email", email).exists();
+        if (!accountBloomFilter.mightContainEmail(email)) return false;
+        if (accountCache.getByEmail(email) != null) return true;
+        long stamp = accountCache.stamp();
+        Account account = baseMapper.selectByEmail(email);
+        if (account == null) {
+            accountBloomFilter.recordFalsePositive();
+            return false;
+        }
+        accountCache.put(account, stamp);
+        return true;
+    }
+
+    /**
+     * 检查邮箱是否已经被注册，用于重置密码，布隆过滤器可能因通知丢失而漏掉刚注册的账户，判定不存在时仍然查询数据库
+     *
+     * @param email 邮箱地址
+     * @return 是否已经被注册
+     */
+    private boolean registeredEmail(String email) {
+        if (accountBloomFilter.mightContainEmail(email)) return this.existsAccountByEmail(email);
+        if (accountCache.getByEmail(email) != null) return true;
+        long stamp = accountCache.stamp();
+        Account account = baseMapper.selectByEmail(email);
+        if (account == null) return false;
+        accountBloomFilter.recordFalseNegative(account.getUsername(), account.getEmail());
+        accountCache.put(account, stamp);
+        return true;
+    }
+
+    /**
+     * 检查用户名是否已经被注册，布隆过滤器判定一定不存在时不再查询数据库
+     *
+     * @param username 用户名
+     * @return 是否已经被注册
+     */
+    private boolean existsAccountByUsername(String username) {
+        if (!accountBloomFilter.mightContainUsername(username)) return false;
+        long stamp = accountCache.stamp();
+        Account account = baseMapper.selectByUsername(username);
+        if (account == null) {
+            accountBloomFilter.recordFalsePositive();
+            return false;
+        }
+        accountCache.put(account, stamp);
+        return true;
     }
 
     /**
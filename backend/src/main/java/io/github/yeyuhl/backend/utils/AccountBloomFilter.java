@@ -0,0 +1,321 @@
+package io.github.yeyuhl.backend.utils;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONObject;
+import io.github.yeyuhl.backend.mapper.AccountMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.SubscriptionListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 已注册邮箱与用户名的布隆过滤器
+ * 注册和重置密码时大量请求来自随机地址，过滤器判定一定不存在时直接返回，不再查询数据库
+ * 启动时以流式查询遍历db_account加载，注册成功后写入本地过滤器并通过Redis频道通知其他节点，
+ * 定期重建以清理已删除的账户，并按当前账户数调整容量，避免元素过多导致误判率上升
+ * 频道通知可能丢失，因此订阅（包括断线重连后的重新订阅）完成与熔断器恢复时都会重建，熔断期间未能发出的通知在恢复后补发
+ * db_account的排序规则不区分大小写，邮箱与用户名去除首尾空白并转为小写后再写入与判定
+ * 过滤器尚未加载成功时一律判定为可能存在
+ *
+ * @author yeyuhl
+ * @since 2023/11/13
+ */
+@Slf4j
+@Component
+public class AccountBloomFilter implements MessageListener, SubscriptionListener {
+    @Autowired
+    AccountMapper accountMapper;
+
+    @Autowired
+    StringRedisTemplate redisTemplate;
+
+    @Autowired
+    RedisCircuitBreaker breaker;
+
+    /**
+     * 预期的账户数量，实际账户数更多时按实际数量的两倍扩容
+     */
+    @Value("${spring.web.account-bloom.expected}")
+    private long expected;
+
+    /**
+     * 期望误判率
+     */
+    @Value("${spring.web.account-bloom.fpp}")
+    private double fpp;
+
+    private volatile BloomFilter filter;
+
+    /**
+     * 重建过程中的新过滤器，重建期间注册的账户需要同时写入新旧两个过滤器
+     */
+    private volatile BloomFilter building;
+
+    /**
+     * 上一次加载的账户数量
+     */
+    private volatile long loaded;
+
+    private final LongAdder checks = new LongAdder();
+    private final LongAdder negatives = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+    private final LongAdder falseNegatives = new LongAdder();
+
+    /**
+     * 熔断期间未能发出的注册通知
+     */
+    private final Queue<String> unsent = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 是否已有等待执行的重建
+     */
+    private final AtomicBoolean rebuildPending = new AtomicBoolean();
+
+    private ExecutorService executor;
+
+    @PostConstruct
+    public void init() {
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "account-bloom-rebuild");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.rebuild();
+        breaker.addRecoveryListener(this::onRecovery);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 流式遍历db_account重建布隆过滤器，失败时继续使用旧的过滤器
+     */
+    @Scheduled(fixedDelayString = "${spring.web.account-bloom.rebuild}",
+            initialDelayString = "${spring.web.account-bloom.rebuild}")
+    public synchronized void rebuild() {
+        // 每个账户写入邮箱与用户名两个元素
+        BloomFilter next = new BloomFilter(Math.max(expected, loaded * 2) * 2, fpp);
+        this.building = next;
+        AtomicLong count = new AtomicLong();
+        try {
+            accountMapper.streamNames(context -> {
+                this.putInto(next, context.getResultObject().get("username"), context.getResultObject().get("email"));
+                count.incrementAndGet();
+            });
+            this.filter = next;
+            this.loaded = count.get();
+            log.info("账户布隆过滤器已重建，共加载{}个账户，占用{}字节", count.get(), next.memoryBytes());
+        } catch (RuntimeException e) {
+            log.warn("账户布隆过滤器重建失败，继续使用旧的过滤器", e);
+        } finally {
+            this.building = null;
+        }
+    }
+
+    /**
+     * 在独立线程上重建过滤器，已有等待执行的重建时不再重复提交
+     */
+    public void requestRebuild() {
+        if (!rebuildPending.compareAndSet(false, true)) return;
+        try {
+            executor.execute(() -> {
+                rebuildPending.set(false);
+                this.rebuild();
+            });
+        } catch (RuntimeException e) {
+            rebuildPending.set(false);
+            log.warn("账户布隆过滤器重建提交失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 判断邮箱是否可能已被注册，返回false时一定未被注册
+     *
+     * @param email 邮箱
+     * @return 是否可能已被注册
+     */
+    public boolean mightContainEmail(String email) {
+        return email == null || this.check("e:" + normalize(email));
+    }
+
+    /**
+     * 判断用户名是否可能已被注册，返回false时一定未被注册
+     *
+     * @param username 用户名
+     * @return 是否可能已被注册
+     */
+    public boolean mightContainUsername(String username) {
+        return username == null || this.check("u:" + normalize(username));
+    }
+
+    /**
+     * 过滤器判定可能存在，但数据库中并不存在时调用，用于统计实际误判率
+     */
+    public void recordFalsePositive() {
+        falsePositives.increment();
+    }
+
+    /**
+     * 过滤器判定一定不存在，但数据库中存在时调用，说明有注册通知丢失，先加入本地过滤器再安排重建
+     *
+     * @param username 用户名
+     * @param email    邮箱
+     */
+    public void recordFalseNegative(String username, String email) {
+        falseNegatives.increment();
+        this.addLocal(username, email);
+        this.requestRebuild();
+    }
+
+    /**
+     * 注册成功后加入本地过滤器，并通知其他节点
+     *
+     * @param username 用户名
+     * @param email    邮箱
+     */
+    public void add(String username, String email) {
+        this.addLocal(username, email);
+        JSONObject message = new JSONObject();
+        message.put("username", username);
+        message.put("email", email);
+        // 熔断期间的通知留到熔断恢复后补发
+        if (!this.publish(message.toJSONString())) unsent.add(message.toJSONString());
+    }
+
+    /**
+     * 接收其他节点注册账户的通知
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        JSONObject body = JSON.parseObject(new String(message.getBody(), StandardCharsets.UTF_8));
+        this.addLocal(body.getString("username"), body.getString("email"));
+    }
+
+    /**
+     * 订阅完成时重建，补上启动加载之后、订阅生效之前以及断线期间其他节点注册的账户
+     */
+    @Override
+    public void onChannelSubscribed(byte[] channel, long count) {
+        this.requestRebuild();
+    }
+
+    /**
+     * 熔断器恢复时补发未发出的通知，并重建以补上熔断期间丢失的通知，两者都在独立线程上执行
+     */
+    private void onRecovery() {
+        executor.execute(() -> {
+            String message;
+            while ((message = unsent.peek()) != null) {
+                if (!this.publish(message)) break;
+                unsent.poll();
+            }
+        });
+        this.requestRebuild();
+    }
+
+    private boolean publish(String message) {
+        return breaker.execute(() -> {
+            redisTemplate.convertAndSend(Const.ACCOUNT_BLOOM_CHANNEL, message);
+            return true;
+        }, () -> false);
+    }
+
+    /**
+     * @return 过滤器判定的次数
+     */
+    public long checkCount() {
+        return checks.sum();
+    }
+
+    /**
+     * @return 判定一定不存在、跳过数据库的次数
+     */
+    public long negativeCount() {
+        return negatives.sum();
+    }
+
+    /**
+     * @return 判定可能存在但数据库中不存在的次数
+     */
+    public long falsePositiveCount() {
+        return falsePositives.sum();
+    }
+
+    /**
+     * @return 判定一定不存在但数据库中存在的次数
+     */
+    public long falseNegativeCount() {
+        return falseNegatives.sum();
+    }
+
+    /**
+     * @return 上一次重建时加载的账户数量
+     */
+    public long loadedCount() {
+        return loaded;
+    }
+
+    /**
+     * @return 位数组占用的内存字节数，未加载时为0
+     */
+    public long memoryBytes() {
+        BloomFilter current = filter;
+        return current == null ? 0 : current.memoryBytes();
+    }
+
+    /**
+     * @return 根据已置位的比例估算的误判率，未加载时为1
+     */
+    public double expectedFpp() {
+        BloomFilter current = filter;
+        return current == null ? 1 : current.expectedFpp();
+    }
+
+    private boolean check(String value) {
+        BloomFilter current = filter;
+        if (current == null) return true;
+        checks.increment();
+        if (current.mightContain(value)) return true;
+        negatives.increment();
+        return false;
+    }
+
+    private void addLocal(String username, String email) {
+        // 先读取重建中的过滤器，读到null时说明重建已经完成，filter已是新的过滤器
+        BloomFilter next = building;
+        if (next != null) this.putInto(next, username, email);
+        BloomFilter current = filter;
+        if (current != null) this.putInto(current, username, email);
+    }
+
+    private void putInto(BloomFilter target, Object username, Object email) {
+        if (username != null) target.put("u:" + normalize(username));
+        if (email != null) target.put("e:" + normalize(email));
+    }
+
+    /**
+     * 与数据库的排序规则保持一致，大小写与首尾空白不同的值视为同一个
+     */
+    private static String normalize(Object value) {
+        return value.toString().trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,301 @@
+package io.github.yeyuhl.backend.utils;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONObject;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.github.yeyuhl.backend.entity.dto.Account;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 账户两级缓存
+ * 第一级为本地Caffeine缓存，按ID保存账户，用户名与邮箱作为索引指向ID；第二级为可选的Redis缓存，供各节点共享
+ * 密码摘要不进入Redis，只在本地单独保存较短的时间，登录时没有命中就查询数据库
+ * 注册与重置密码后删除对应的缓存，并通过Redis频道通知其他节点删除本地缓存
+ * 每次删除都为账户记录一个递增的版本号，查询数据库之前先取得当前版本号，写入缓存时发现账户在此之后被删除过就放弃写入，
+ * 避免查询到旧数据的登录请求在重置密码之后把旧的密码摘要重新写回缓存
+ *
+ * @author yeyuhl
+ * @since 2023/11/12
+ */
+@Component
+public class AccountCache implements MessageListener {
+    @Autowired
+    StringRedisTemplate redisTemplate;
+
+    @Autowired
+    RedisCircuitBreaker breaker;
+
+    /**
+     * 本地最多缓存的账户数
+     */
+    @Value("${spring.web.account-cache.size}")
+    long size;
+
+    /**
+     * 本地缓存的存活时间，以秒为单位，也是频道通知丢失时的最大延迟
+     */
+    @Value("${spring.web.account-cache.ttl}")
+    int ttl;
+
+    /**
+     * 密码摘要在本地缓存的存活时间，以秒为单位
+     */
+    @Value("${spring.web.account-cache.password-ttl}")
+    int passwordTtl;
+
+    /**
+     * 是否启用Redis缓存
+     */
+    @Value("${spring.web.account-cache.redis}")
+    boolean redis;
+
+    /**
+     * Redis缓存的存活时间，以秒为单位
+     */
+    @Value("${spring.web.account-cache.redis-ttl}")
+    int redisTtl;
+
+    /**
+     * 同一份数据写入多个键
+     */
+    private static final DefaultRedisScript<Long> PUT_SCRIPT = new DefaultRedisScript<>("""
+            for _, key in ipairs(KEYS) do
+                redis.call('SET', key, ARGV[1], 'EX', ARGV[2])
+            end
+            return #KEYS
+            """, Long.class);
+
+    /**
+     * 用户ID -> 账户信息
+     */
+    private Cache<Integer, CachedAccount> accounts;
+
+    /**
+     * "u:"用户名 或 "e:"邮箱 -> 用户ID
+     */
+    private Cache<String, Integer> keys;
+
+    /**
+     * 用户ID -> 密码摘要
+     */
+    private Cache<Integer, String> passwords;
+
+    /**
+     * 用户ID -> 最近一次删除缓存时的版本号，保留时间远长于一次数据库查询
+     */
+    private Cache<Integer, Long> invalidations;
+
+    private final AtomicLong version = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        this.accounts = Caffeine.newBuilder()
+                .maximumSize(size)
+                .expireAfterWrite(ttl, TimeUnit.SECONDS)
+                .build();
+        this.keys = Caffeine.newBuilder()
+                .maximumSize(size * 2)
+                .expireAfterWrite(ttl, TimeUnit.SECONDS)
+                .build();
+        this.passwords = Caffeine.newBuilder()
+                .maximumSize(size)
+                .expireAfterWrite(passwordTtl, TimeUnit.SECONDS)
+                .build();
+        this.invalidations = Caffeine.newBuilder()
+                .maximumSize(size)
+                .expireAfterWrite(ttl, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * 查询数据库之前调用，取得当前的版本号，写入缓存时传给put
+     *
+     * @return 版本号
+     */
+    public long stamp() {
+        return version.get();
+    }
+
+    /**
+     * 通过用户名或者邮箱获取缓存的账户，返回的账户在密码摘要已过期时不含密码
+     *
+     * @param text 用户名或邮箱
+     * @return 账户，未缓存时为null
+     */
+    public Account get(String text) {
+        CachedAccount cached = null;
+        // 包含@的输入优先视为邮箱，与数据库查询的顺序保持一致
+        if (text.indexOf('@') >= 0) cached = this.lookup("e:", text);
+        if (cached == null) cached = this.lookup("u:", text);
+        return cached == null ? null : cached.toAccount(passwords.getIfPresent(cached.id()));
+    }
+
+    /**
+     * 通过邮箱获取缓存的账户
+     *
+     * @param email 邮箱
+     * @return 账户，未缓存时为null
+     */
+    public Account getByEmail(String email) {
+        CachedAccount cached = this.lookup("e:", email);
+        return cached == null ? null : cached.toAccount(passwords.getIfPresent(cached.id()));
+    }
+
+    /**
+     * 获取带有密码摘要的账户，供登录校验使用
+     *
+     * @param text 用户名或邮箱
+     * @return 账户，未缓存或密码摘要已过期时为null
+     */
+    public Account getWithPassword(String text) {
+        Account account = this.get(text);
+        return account == null || account.getPassword() == null ? null : account;
+    }
+
+    /**
+     * 缓存从数据库查询到的账户，账户在查询开始之后被删除过缓存时放弃写入
+     *
+     * @param account 账户
+     * @param stamp   查询数据库之前通过stamp取得的版本号
+     */
+    public void put(Account account, long stamp) {
+        CachedAccount cached = CachedAccount.of(account);
+        if (this.invalidatedSince(cached.id(), stamp)) return;
+        this.putLocal(cached);
+        if (account.getPassword() != null) passwords.put(cached.id(), account.getPassword());
+        // 检查与写入之间发生的删除，撤销刚才的写入
+        if (this.invalidatedSince(cached.id(), stamp)) {
+            this.invalidateLocal(cached.id(), cached.username(), cached.email());
+            return;
+        }
+        if (redis) {
+            String json = JSON.toJSONString(cached);
+            breaker.execute(() -> redisTemplate.execute(PUT_SCRIPT, this.redisKeys(cached.id(), cached.username(),
+                    cached.email()), json, String.valueOf(redisTtl)), () -> null);
+            if (this.invalidatedSince(cached.id(), stamp)) {
+                breaker.execute(() -> redisTemplate.delete(this.redisKeys(cached.id(), cached.username(), cached.email())),
+                        () -> null);
+            }
+        }
+    }
+
+    /**
+     * 账户变更后删除缓存，并通知其他节点，参数为null时跳过对应的键
+     *
+     * @param id       用户ID
+     * @param username 用户名
+     * @param email    邮箱
+     */
+    public void invalidate(Integer id, String username, String email) {
+        this.invalidateLocal(id, username, email);
+        breaker.execute(() -> {
+            if (redis) redisTemplate.delete(this.redisKeys(id, username, email));
+            JSONObject message = new JSONObject();
+            message.put("id", id);
+            message.put("username", username);
+            message.put("email", email);
+            redisTemplate.convertAndSend(Const.ACCOUNT_CACHE_CHANNEL, message.toJSONString());
+            return true;
+        }, () -> false);
+    }
+
+    /**
+     * 接收其他节点的账户变更通知，删除本地缓存
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        JSONObject body = JSON.parseObject(new String(message.getBody(), StandardCharsets.UTF_8));
+        this.invalidateLocal(body.getInteger("id"), body.getString("username"), body.getString("email"));
+    }
+
+    /**
+     * 依次查找本地缓存与Redis缓存，索引指向的账户与查询条件不一致时视为未命中
+     *
+     * @param prefix 索引前缀
+     * @param value  用户名或邮箱
+     * @return 账户信息
+     */
+    private CachedAccount lookup(String prefix, String value) {
+        Integer id = keys.getIfPresent(prefix + value);
+        if (id != null) {
+            CachedAccount cached = accounts.getIfPresent(id);
+            if (cached != null && cached.matches(prefix, value)) return cached;
+        }
+        if (!redis) return null;
+        String json = breaker.execute(() -> redisTemplate.opsForValue()
+                .get(Const.ACCOUNT_CACHE + (prefix.equals("e:") ? "email:" : "name:") + value), () -> null);
+        if (json == null) return null;
+        CachedAccount cached = JSON.parseObject(json, CachedAccount.class);
+        if (!cached.matches(prefix, value)) return null;
+        this.putLocal(cached);
+        return cached;
+    }
+
+    private void putLocal(CachedAccount cached) {
+        accounts.put(cached.id(), cached);
+        if (cached.username() != null) keys.put("u:" + cached.username(), cached.id());
+        if (cached.email() != null) keys.put("e:" + cached.email(), cached.id());
+    }
+
+    private boolean invalidatedSince(int id, long stamp) {
+        Long invalidated = invalidations.getIfPresent(id);
+        return invalidated != null && invalidated > stamp;
+    }
+
+    private void invalidateLocal(Integer id, String username, String email) {
+        if (id != null) {
+            invalidations.put(id, version.incrementAndGet());
+            CachedAccount cached = accounts.getIfPresent(id);
+            accounts.invalidate(id);
+            passwords.invalidate(id);
+            // 旧的用户名与邮箱索引也一并删除
+            if (cached != null) {
+                keys.invalidate("u:" + cached.username());
+                keys.invalidate("e:" + cached.email());
+            }
+        }
+        if (username != null) keys.invalidate("u:" + username);
+        if (email != null) keys.invalidate("e:" + email);
+    }
+
+    private List<String> redisKeys(Integer id, String username, String email) {
+        List<String> list = new ArrayList<>(3);
+        if (id != null) list.add(Const.ACCOUNT_CACHE + "id:" + id);
+        if (username != null) list.add(Const.ACCOUNT_CACHE + "name:" + username);
+        if (email != null) list.add(Const.ACCOUNT_CACHE + "email:" + email);
+        return list;
+    }
+
+    /**
+     * 缓存中的账户信息，不含密码摘要
+     */
+    public record CachedAccount(int id, String username, String email, String role, Date registerTime) {
+        static CachedAccount of(Account account) {
+            return new CachedAccount(account.getId(), account.getUsername(), account.getEmail(), account.getRole(),
+                    account.getRegisterTime());
+        }
+
+        boolean matches(String prefix, String value) {
+            return value.equals(prefix.equals("e:") ? email : username);
+        }
+
+        Account toAccount(String password) {
+            return new Account(id, username, password, email, role, registerTime);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package io.github.yeyuhl.backend.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 并发数自适应的舱壁
+ * 同时执行的任务数不超过当前上限，超出的请求按先来后到短暂排队，超过截止时间或队列已满时直接拒绝，
+ * 上限根据观测到的执行耗时按Vegas算法调整：
+ * 估算排队长度 = 上限 * (1 - 最小耗时 / 本次耗时)，排队较少时放大上限，排队较多时缩小上限，
+ * 最小耗时每隔一定样本数重新测量一次，以适应负载特征的变化
+ *
+ * @author yeyuhl
+ * @since 2023/11/02
+ */
+public class AdaptiveBulkhead {
+    /**
+     * 重新测量最小耗时的样本间隔
+     */
+    private static final int RTT_PROBE_INTERVAL = 1000;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final int maxQueue;
+
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Condition available = lock.newCondition();
+
+    private double limit;
+    private int inFlight;
+    private int waiting;
+    private long minRtt;
+    private long samples;
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+
+    /**
+     * @param initialLimit 初始并发上限
+     * @param minLimit     最小并发上限
+     * @param maxLimit     最大并发上限
+     * @param maxQueue     最大排队数
+     */
+    public AdaptiveBulkhead(int initialLimit, int minLimit, int maxLimit, int maxQueue) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.maxQueue = maxQueue;
+        this.limit = Math.max(minLimit, Math.min(initialLimit, maxLimit));
+    }
+
+    /**
+     * 尝试进入舱壁，必要时排队等待
+     *
+     * @param timeout 最长等待时间
+     * @param unit    时间单位
+     * @return 是否进入成功，成功后必须调用release
+     */
+    public boolean tryAcquire(long timeout, TimeUnit unit) {
+        lock.lock();
+        try {
+            if (waiting == 0 && inFlight < (int) limit) {
+                inFlight++;
+                accepted.increment();
+                return true;
+            }
+            if (waiting >= maxQueue) {
+                shed.increment();
+                return false;
+            }
+            waiting++;
+            try {
+                long nanos = unit.toNanos(timeout);
+                while (inFlight >= (int) limit) {
+                    if (nanos <= 0) {
+                        shed.increment();
+                        return false;
+                    }
+                    nanos = available.awaitNanos(nanos);
+                }
+                inFlight++;
+                accepted.increment();
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                shed.increment();
+                return false;
+            } finally {
+                waiting--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 离开舱壁，并根据本次耗时调整并发上限
+     *
+     * @param rttNanos 本次执行耗时，以纳秒为单位
+     * @param success  是否正常完成，异常结束时缩小上限
+     */
+    public void release(long rttNanos, boolean success) {
+        lock.lock();
+        try {
+            int before = (int) limit;
+            this.update(rttNanos, success, inFlight);
+            inFlight--;
+            if ((int) limit > before) {
+                available.signalAll();
+            } else {
+                available.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return 当前并发上限
+     */
+    public int limit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return 正在执行的任务数
+     */
+    public int inFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return 正在排队的请求数
+     */
+    public int queueDepth() {
+        lock.lock();
+        try {
+            return waiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return 累计进入舱壁的请求数
+     */
+    public long acceptedCount() {
+        return accepted.sum();
+    }
+
+    /**
+     * @return 累计被拒绝的请求数
+     */
+    public long shedCount() {
+        return shed.sum();
+    }
+
+    private void update(long rtt, boolean success, int concurrency) {
+        if (!success) {
+            limit = Math.max(minLimit, limit * 0.9);
+            return;
+        }
+        if (rtt <= 0) return;
+        if (minRtt == 0 || rtt < minRtt || ++samples % RTT_PROBE_INTERVAL == 0) {
+            minRtt = rtt;
+        }
+        double log = Math.max(1, Math.log10(limit));
+        double queue = limit * (1 - (double) minRtt / rtt);
+        if (queue < 3 * log) {
+            // 只有并发真正用满时才放大上限，避免空闲时上限无限增长
+            if (concurrency * 2 >= limit) limit = Math.min(maxLimit, limit + log);
+        } else if (queue > 6 * log) {
+            limit = Math.max(minLimit, limit - log);
+        }
+    }
+}
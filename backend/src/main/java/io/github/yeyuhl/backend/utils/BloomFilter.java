@@ -0,0 +1,120 @@
+package io.github.yeyuhl.backend.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 线程安全的布隆过滤器
+ * 用于在本地快速判断某个元素“一定不存在”，只有可能存在时才需要去查询Redis或数据库
+ *
+ * @author yeyuhl
+ * @since 2023/10/22
+ */
+public class BloomFilter {
+    /**
+     * 位数组，使用AtomicLongArray保证并发写入不会丢失
+     */
+    private final AtomicLongArray bits;
+
+    /**
+     * 位数组的总位数
+     */
+    private final long numBits;
+
+    /**
+     * 哈希函数个数
+     */
+    private final int numHashes;
+
+    /**
+     * 根据预期元素数量与期望误判率计算位数组大小与哈希函数个数
+     *
+     * @param expectedInsertions 预期元素数量
+     * @param fpp                期望误判率
+     */
+    public BloomFilter(long expectedInsertions, double fpp) {
+        long n = Math.max(expectedInsertions, 1);
+        long m = (long) Math.ceil(-n * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.max((m + 63) >>> 6, 1);
+        this.bits = new AtomicLongArray(words);
+        this.numBits = (long) words << 6;
+        this.numHashes = Math.max(1, (int) Math.round((double) numBits / n * Math.log(2)));
+    }
+
+    /**
+     * 添加元素
+     *
+     * @param value 元素
+     */
+    public void put(String value) {
+        long hash = hash(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= numHashes; i++) {
+            long index = Math.floorMod(h1 + (long) i * h2, numBits);
+            int word = (int) (index >>> 6);
+            long mask = 1L << index;
+            long current;
+            do {
+                current = bits.get(word);
+                if ((current & mask) != 0) break;
+            } while (!bits.compareAndSet(word, current, current | mask));
+        }
+    }
+
+    /**
+     * 判断元素是否可能存在，返回false时元素一定不存在
+     *
+     * @param value 元素
+     * @return 是否可能存在
+     */
+    public boolean mightContain(String value) {
+        long hash = hash(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= numHashes; i++) {
+            long index = Math.floorMod(h1 + (long) i * h2, numBits);
+            if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * 根据已置位的比例估算当前的误判率
+     *
+     * @return 估算误判率
+     */
+    public double expectedFpp() {
+        long set = 0;
+        for (int i = 0; i < bits.length(); i++) {
+            set += Long.bitCount(bits.get(i));
+        }
+        return Math.pow((double) set / numBits, numHashes);
+    }
+
+    /**
+     * @return 位数组占用的内存字节数
+     */
+    public long memoryBytes() {
+        return (long) bits.length() * Long.BYTES;
+    }
+
+    /**
+     * 对字符串做64位哈希，FNV-1a后再用MurmurHash3的fmix64打散
+     *
+     * @param value 字符串
+     * @return 哈希值
+     */
+    private static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -10,19 +10,40 @@ public class Const {
     //JWT令牌
     public final static String JWT_BLACK_LIST = "jwt:blacklist:";
     public final static String JWT_FREQUENCY = "jwt:frequency:";
+    public final static String JWT_BLACK_LIST_CHANNEL = "jwt:channel:blacklist";
+    public final static String JWT_EPOCH = "jwt:epoch:";
+    public final static String JWT_EPOCH_CHANNEL = "jwt:channel:epoch";
+    public final static String JWT_REFRESH = "jwt:refresh:";
     //请求频率限制
     public final static String FLOW_LIMIT_COUNTER = "flow:counter:";
     public final static String FLOW_LIMIT_BLOCK = "flow:block:";
+    public final static String FLOW_ROUTE_COUNTER = "flow:route:counter:";
+    public final static String FLOW_ROUTE_BLOCK = "flow:route:block:";
+    public final static String FLOW_SUBNET_TRIP = "flow:subnet:trip:";
+    public final static String FLOW_SUBNET_BLOCK = "flow:subnet:block:";
+    public final static String FLOW_SUBNET_CHANNEL = "flow:channel:subnet";
+    //登录失败计数
+    public final static String LOGIN_FAILURE = "login:failure:";
+    public final static String LOGIN_LOCK = "login:lock:";
+    //账户缓存
+    public final static String ACCOUNT_CACHE = "account:cache:";
+    public final static String ACCOUNT_CACHE_CHANNEL = "account:channel:invalidate";
+    public final static String ACCOUNT_BLOOM_CHANNEL = "account:channel:bloom";
+    //雪花算法节点ID租约
+    public final static String SNOWFLAKE_WORKER = "snowflake:worker:";
     //邮件验证码
     public final static String VERIFY_EMAIL_LIMIT = "verify:email:limit:";
     public final static String VERIFY_EMAIL_DATA = "verify:email:data:";
     //过滤器优先级
     public final static int ORDER_FLOW_LIMIT = -101;
     public final static int ORDER_CORS = -102;
+    //请求头
+    public final static String HEADER_REFRESH_TOKEN = "X-Refresh-Token";
     //请求自定义属性
     public final static String ATTR_USER_ID = "userId";
     //消息队列
     public final static String MQ_MAIL = "mail";
     //用户角色
     public final static String ROLE_DEFAULT = "user";
+    public final static String ROLE_ADMIN = "admin";
 }
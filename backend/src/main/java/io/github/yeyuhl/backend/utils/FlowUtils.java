@@ -1,15 +1,30 @@
 package io.github.yeyuhl.backend.utils;
 
+import io.github.yeyuhl.backend.utils.limit.LimitAlgorithm;
+import io.github.yeyuhl.backend.utils.jfr.RedisLimitEvent;
+import io.github.yeyuhl.backend.utils.limit.LocalFallbackLimiter;
+import io.github.yeyuhl.backend.utils.metrics.Stage;
+import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Component;
 
-import java.util.Optional;
-import java.util.concurrent.TimeUnit;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * 限流工具类
+ * 具体的限流算法由RateLimitAlgorithm提供，可以按使用场景选择，算法片段与封禁检查、升级封禁的公共逻辑拼接为一个脚本，
+ * 检查、计数、设置过期时间与升级封禁在一次原子调用中完成
+ * 所有调用都经过RedisCircuitBreaker，Redis超时或熔断时降级为本地限流
  *
  * @author yeyuhl
  * @since 2023/10/13
@@ -20,6 +35,69 @@ public class FlowUtils {
     @Autowired
     StringRedisTemplate redisTemplate;
 
+    @Autowired
+    RedisCircuitBreaker breaker;
+
+    /**
+     * Redis不可用时的本地限流器
+     */
+    private final LocalFallbackLimiter fallback = new LocalFallbackLimiter(100_000);
+
+    /**
+     * 各算法对应的完整脚本
+     * KEYS：计数键、封禁键、超限计数键、两个窗口键，均带有相同的hash tag，保证在集群中位于同一个槽
+     * ARGV：配额、周期、消耗数、是否强制计入、封禁时间、允许的超限次数
+     * 放行时返回当前周期内已消耗的请求数，拒绝或处于封禁中时返回-1
+     */
+    private static final Map<LimitAlgorithm, RedisScript<Long>> SCRIPTS = new EnumMap<>(LimitAlgorithm.class);
+
+    static {
+        for (LimitAlgorithm algorithm : LimitAlgorithm.values()) {
+            SCRIPTS.put(algorithm, new DefaultRedisScript<>("""
+                    if redis.call('EXISTS', KEYS[2]) == 1 then return -1 end
+                    local key = KEYS[1]
+                    local windows = {KEYS[4], KEYS[5]}
+                    local limit = tonumber(ARGV[1])
+                    local period = tonumber(ARGV[2])
+                    local cost = tonumber(ARGV[3])
+                    local force = ARGV[4] == '1'
+                    local time = redis.call('TIME')
+                    local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+                    local allowed, used
+                    """ + algorithm.algorithm().script() + """
+                    if allowed then return used end
+                    local blockTime = tonumber(ARGV[5])
+                    if blockTime > 0 then
+                        local over = redis.call('INCR', KEYS[3])
+                        if over == 1 then redis.call('EXPIRE', KEYS[3], period) end
+                        if over > tonumber(ARGV[6]) then
+                            redis.call('SET', KEYS[2], '', 'EX', blockTime)
+                            redis.call('DEL', KEYS[3])
+                        end
+                    end
+                    return -1
+                    """, Long.class));
+        }
+    }
+
+    /**
+     * 启动时将脚本预加载到Redis中，之后每次调用都只需要一次EVALSHA
+     */
+    @PostConstruct
+    public void loadScripts() {
+        try {
+            redisTemplate.execute((RedisCallback<Void>) connection -> {
+                for (RedisScript<Long> script : SCRIPTS.values()) {
+                    connection.scriptingCommands().scriptLoad(script.getScriptAsString().getBytes(StandardCharsets.UTF_8));
+                }
+                return null;
+            });
+        } catch (RuntimeException e) {
+            // 预加载失败不影响使用，首次执行时会自动回退到EVAL
+            log.warn("限流脚本预加载失败: {}", e.getMessage());
+        }
+    }
+
     /**
      * 针对单次频率的限制，请求成功后，在一定时间内不允许再次请求
      *
@@ -28,7 +106,19 @@ public class FlowUtils {
      * @return 是否通过限流检查
      */
     public boolean limitOnceCheck(String key, int blockTime) {
-        return this.internalCheck(key, 1, blockTime, (overclock -> false));
+        return this.limitOnceCheck(LimitAlgorithm.FIXED_WINDOW, key, blockTime);
+    }
+
+    /**
+     * 针对单次频率的限制，请求成功后，在一定时间内不允许再次请求
+     *
+     * @param algorithm 限流算法
+     * @param key       键
+     * @param blockTime 限制时间
+     * @return 是否通过限流检查
+     */
+    public boolean limitOnceCheck(LimitAlgorithm algorithm, String key, int blockTime) {
+        return this.execute(algorithm, key, key + ":block", 1, blockTime, 1, false, 0, 0) >= 0;
     }
 
     /**
@@ -41,13 +131,22 @@ public class FlowUtils {
      * @return 是否通过限流检查
      */
     public boolean limitOnceUpgradeCheck(String key, int frequency, int blockTime, int upgradeTime) {
-        return this.internalCheck(key, frequency, blockTime, (overclock -> {
-            if (overclock) {
-                // 如果超过限制频率，则将限制时间升级
-                redisTemplate.opsForValue().set(key, "1", upgradeTime, TimeUnit.SECONDS);
-            }
-            return false;
-        }));
+        return this.limitOnceUpgradeCheck(LimitAlgorithm.FIXED_WINDOW, key, frequency, blockTime, upgradeTime);
+    }
+
+    /**
+     * 针对单次频率的限制，请求成功后，在一定时间内不允许再次请求，
+     * 限制时间内被拒绝的次数超过频率后，将限制时间升级
+     *
+     * @param algorithm   限流算法
+     * @param key         键
+     * @param frequency   请求的频率
+     * @param blockTime   基础限制时间
+     * @param upgradeTime 升级限制时间
+     * @return 是否通过限流检查
+     */
+    public boolean limitOnceUpgradeCheck(LimitAlgorithm algorithm, String key, int frequency, int blockTime, int upgradeTime) {
+        return this.execute(algorithm, key, key + ":block", 1, blockTime, 1, false, upgradeTime, frequency) >= 0;
     }
 
     /**
@@ -61,40 +160,175 @@ public class FlowUtils {
      * @return 是否通过限流检查
      */
     public boolean limitPeriodCheck(String counterKey, String blockKey, int blockTime, int frequency, int period) {
-        return this.internalCheck(counterKey, frequency, period, (overclock -> {
-            if (overclock) {
-                // 如果超过限制频率，则将限制时间升级
-                redisTemplate.opsForValue().set(blockKey, "", blockTime, TimeUnit.SECONDS);
-            }
-            return !overclock;
-        }));
+        return this.limitPeriodCheck(LimitAlgorithm.FIXED_WINDOW, counterKey, blockKey, blockTime, frequency, period);
     }
 
     /**
-     * 内部使用请求限制的主要逻辑
+     * 针对一段时间内的多次请求的限制，如果超过限制频率，则封禁一段时间
+     * 封禁期间直接拒绝，检查、计数、设置过期时间与封禁在一次原子调用中完成
      *
-     * @param key       计数key
-     * @param frequency 请求的频率
-     * @param period    时间周期
-     * @param action    限制行为与策略
+     * @param algorithm  限流算法
+     * @param counterKey 计数key
+     * @param blockKey   封禁key
+     * @param blockTime  封禁时间
+     * @param frequency  请求频率
+     * @param period     时间周期
      * @return 是否通过限流检查
      */
-    private boolean internalCheck(String key, int frequency, int period, LimitAction action) {
-        if (Boolean.TRUE.equals(redisTemplate.hasKey(key))) {
-            // 如果key存在，其value+1，并且其value超过frequency则采取限流策略
-            Long value = Optional.ofNullable(redisTemplate.opsForValue().increment(key)).orElse(0L);
-            return action.run(value > frequency);
-        } else {
-            // 如果key不存在，说明该请求不在blockTime中，设置key的过期时间（也就是计数周期）
-            redisTemplate.opsForValue().set(key, "1", period, TimeUnit.SECONDS);
-            return true;
+    public boolean limitPeriodCheck(LimitAlgorithm algorithm, String counterKey, String blockKey,
+                                    int blockTime, int frequency, int period) {
+        return this.execute(algorithm, counterKey, blockKey, frequency, period, 1, false, blockTime, 0) >= 0;
+    }
+
+    /**
+     * 与limitPeriodCheck使用相同的键，将本地已经放行的一批请求一次性计入消耗
+     *
+     * @param algorithm  限流算法
+     * @param counterKey 计数key
+     * @param blockKey   封禁key
+     * @param blockTime  封禁时间
+     * @param frequency  请求频率
+     * @param period     时间周期
+     * @param permits    本地已放行的请求数，可以为0，此时仅查询当前消耗
+     * @return 当前周期内已消耗的请求数，超限或已被封禁时返回-1
+     */
+    public long limitPeriodBatch(LimitAlgorithm algorithm, String counterKey, String blockKey,
+                                 int blockTime, int frequency, int period, int permits) {
+        return this.execute(algorithm, counterKey, blockKey, frequency, period, permits, true, blockTime, 0);
+    }
+
+    /**
+     * 与limitPeriodBatch相同，多个键的消耗通过一次管道调用计入，供定期同步使用
+     * Redis不可用或熔断时抛出异常，由调用方保留计数等待下次同步，不降级为本地限流
+     *
+     * @param algorithm 限流算法
+     * @param items     各个键及其本地已放行的请求数
+     * @param blockTime 封禁时间
+     * @param frequency 请求频率
+     * @param period    时间周期
+     * @return 与items一一对应的已消耗请求数，超限或已被封禁时为-1
+     */
+    public List<Long> limitPeriodBatch(LimitAlgorithm algorithm, List<BatchItem> items,
+                                       int blockTime, int frequency, int period) {
+        if (items.isEmpty()) return List.of();
+        long start = System.nanoTime();
+        try {
+            return breaker.execute(() -> {
+                try {
+                    return this.pipeline(algorithm, items, blockTime, frequency, period);
+                } catch (RuntimeException e) {
+                    // Redis重启后脚本缓存会丢失，重新加载后再试一次
+                    this.loadScripts();
+                    return this.pipeline(algorithm, items, blockTime, frequency, period);
+                }
+            }, () -> {
+                throw new IllegalStateException("Redis熔断中");
+            });
+        } finally {
+            Stage.REDIS_LIMIT.recordSince(start);
+        }
+    }
+
+    private List<Long> pipeline(LimitAlgorithm algorithm, List<BatchItem> items,
+                                int blockTime, int frequency, int period) {
+        byte[] sha = SCRIPTS.get(algorithm).getSha1().getBytes(StandardCharsets.UTF_8);
+        byte[] limitArg = String.valueOf(frequency).getBytes(StandardCharsets.UTF_8);
+        byte[] periodArg = String.valueOf(period).getBytes(StandardCharsets.UTF_8);
+        byte[] forceArg = "1".getBytes(StandardCharsets.UTF_8);
+        byte[] blockArg = String.valueOf(blockTime).getBytes(StandardCharsets.UTF_8);
+        byte[] overArg = "0".getBytes(StandardCharsets.UTF_8);
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (BatchItem item : items) {
+                List<String> keys = this.scriptKeys(item.counterKey(), item.blockKey());
+                connection.scriptingCommands().evalSha(sha, ReturnType.INTEGER, keys.size(),
+                        keys.get(0).getBytes(StandardCharsets.UTF_8),
+                        keys.get(1).getBytes(StandardCharsets.UTF_8),
+                        keys.get(2).getBytes(StandardCharsets.UTF_8),
+                        keys.get(3).getBytes(StandardCharsets.UTF_8),
+                        keys.get(4).getBytes(StandardCharsets.UTF_8),
+                        limitArg, periodArg, String.valueOf(item.permits()).getBytes(StandardCharsets.UTF_8),
+                        forceArg, blockArg, overArg);
+            }
+            return null;
+        });
+        List<Long> used = new ArrayList<>(results.size());
+        for (Object result : results) {
+            used.add(result instanceof Number number ? number.longValue() : -1L);
         }
+        return used;
     }
 
     /**
-     * 内部使用，限制行为与策略
+     * 封禁键在Redis中的实际名称，封禁键与计数键共用以计数键为内容的hash tag
+     *
+     * @param counterKey 计数key
+     * @param blockKey   封禁key
+     * @return 实际写入Redis的封禁键
      */
-    private interface LimitAction {
-        boolean run(boolean overclock);
+    public static String blockKey(String counterKey, String blockKey) {
+        return blockKey + "{" + counterKey + "}";
+    }
+
+    /**
+     * 脚本使用的全部键，均在脚本的KEYS中声明
+     *
+     * @param counterKey 计数key
+     * @param blockKey   封禁key
+     * @return 计数键、封禁键、超限计数键与两个窗口键
+     */
+    private List<String> scriptKeys(String counterKey, String blockKey) {
+        String tag = "{" + counterKey + "}";
+        return List.of(tag, blockKey(counterKey, blockKey), tag + ":over", tag + ":0", tag + ":1");
+    }
+
+    /**
+     * 批量计入消耗时的单个键
+     *
+     * @param counterKey 计数key
+     * @param blockKey   封禁key
+     * @param permits    本地已放行的请求数
+     */
+    public record BatchItem(String counterKey, String blockKey, int permits) {
+    }
+
+    /**
+     * 内部使用，执行限流脚本
+     *
+     * @param algorithm  限流算法
+     * @param counterKey 计数key
+     * @param blockKey   封禁key
+     * @param limit      周期内允许的请求数
+     * @param period     时间周期
+     * @param cost       本次消耗的请求数
+     * @param force      是否无论超限与否都计入消耗
+     * @param blockTime  超限后的封禁时间，为0时不封禁
+     * @param overLimit  允许的超限次数，超过后才封禁
+     * @return 当前周期内已消耗的请求数，拒绝时返回-1
+     */
+    private long execute(LimitAlgorithm algorithm, String counterKey, String blockKey, int limit, int period,
+                         int cost, boolean force, int blockTime, int overLimit) {
+        long start = System.nanoTime();
+        RedisLimitEvent event = new RedisLimitEvent();
+        event.begin();
+        long used = -1;
+        try {
+            used = breaker.execute(() -> {
+                Long result = redisTemplate.execute(SCRIPTS.get(algorithm), this.scriptKeys(counterKey, blockKey),
+                        String.valueOf(limit), String.valueOf(period), String.valueOf(cost), force ? "1" : "0",
+                        String.valueOf(blockTime), String.valueOf(overLimit));
+                return result == null ? -1 : result;
+            }, () -> fallback.execute(counterKey, blockKey, limit, period, cost, force, blockTime, overLimit));
+            return used;
+        } finally {
+            Stage.REDIS_LIMIT.recordSince(start);
+            if (event.shouldCommit()) {
+                event.algorithm = algorithm.name();
+                event.key = RedisLimitEvent.maskKey(counterKey);
+                event.cost = cost;
+                event.used = used;
+                event.breakerState = breaker.state().name();
+                event.commit();
+            }
+        }
     }
 }
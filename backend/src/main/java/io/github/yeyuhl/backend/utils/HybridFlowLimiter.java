@@ -0,0 +1,347 @@
+package io.github.yeyuhl.backend.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.github.yeyuhl.backend.utils.limit.LimitAlgorithm;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 本地与Redis结合的两级限流器
+ * 每个客户端在本地有一个令牌桶，令牌由定时同步任务根据集群中的计数发放，
+ * 客户端离配额还很远时，请求只需在本地无锁地扣减令牌，已放行的请求数定期批量上报Redis，
+ * 接近配额时不再发放本地令牌，请求回落到逐请求的Redis检查，因此集群范围的限制仍然生效，
+ * 超出量不超过各节点在一个同步周期内发放的本地令牌数之和
+ * 令牌桶保存在有容量上限的缓存中，长时间没有请求或超出容量的桶会被淘汰，淘汰时尚未上报的计数留到下次同步上报，
+ * 同步任务在独立的线程上执行，所有客户端的上报通过管道批量发送
+ * 每个周期内请求数不超过本地额度的客户端只在本地计数，不会在Redis中创建计数键，
+ * 超出额度后才开始上报，此前在本地放行的请求一并计入，代价是每个节点在一个周期内最多多放行一个额度
+ *
+ * @author yeyuhl
+ * @since 2023/10/27
+ */
+@Slf4j
+@Component
+public class HybridFlowLimiter {
+    /**
+     * 已被淘汰的令牌桶的待上报计数，淘汰之后的自增结果仍为负数
+     */
+    private static final int RETIRED = Integer.MIN_VALUE / 2;
+
+    /**
+     * 每次管道调用最多包含的客户端数
+     */
+    private static final int PIPELINE_SIZE = 1000;
+
+    @Autowired
+    FlowUtils flowUtils;
+
+    /**
+     * 限定时间内的最大请求次数
+     */
+    @Value("${spring.web.flow.limit}")
+    int limit;
+
+    /**
+     * 限定时间
+     */
+    @Value("${spring.web.flow.period}")
+    int period;
+
+    /**
+     * 超过限流阈值后的封禁时间
+     */
+    @Value("${spring.web.flow.block}")
+    int block;
+
+    /**
+     * 限流算法，需要与FlowLimitingFilter中使用的一致
+     */
+    @Value("${spring.web.flow.algorithm}")
+    LimitAlgorithm algorithm;
+
+    /**
+     * 集群计数达到配额的这个比例后，不再发放本地令牌
+     */
+    @Value("${spring.web.flow.local.near}")
+    double near;
+
+    /**
+     * 每次同步时，将剩余配额的多大比例作为本地令牌发放
+     */
+    @Value("${spring.web.flow.local.ratio}")
+    double ratio;
+
+    /**
+     * 同步间隔，以毫秒为单位
+     */
+    @Value("${spring.web.flow.local.sync-interval}")
+    long syncInterval;
+
+    /**
+     * 每个周期内无需访问Redis即可放行的请求数
+     */
+    @Value("${spring.web.flow.local.allowance}")
+    int allowance;
+
+    /**
+     * 最多保存的令牌桶数量
+     */
+    @Value("${spring.web.flow.local.capacity}")
+    long capacity;
+
+    /**
+     * 客户端地址 -> 本地令牌桶
+     */
+    private Cache<String, Bucket> buckets;
+
+    /**
+     * 令牌桶被淘汰时尚未上报的计数
+     */
+    private final Queue<Unreported> unreported = new ConcurrentLinkedQueue<>();
+
+    private ScheduledExecutorService executor;
+
+    @PostConstruct
+    public void init() {
+        this.buckets = Caffeine.newBuilder()
+                .maximumSize(capacity)
+                .expireAfterAccess(Math.max(period, block), TimeUnit.SECONDS)
+                .evictionListener((String address, Bucket bucket, RemovalCause cause) -> {
+                    if (address != null && bucket != null) this.retire(address, bucket);
+                })
+                .build();
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "flow-limit-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.scheduleWithFixedDelay(this::sync, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 判断客户端是否已在本地被封禁
+     *
+     * @param address 客户端地址
+     * @return 是否被封禁
+     */
+    public boolean isBlocked(String address) {
+        Bucket bucket = buckets.getIfPresent(address);
+        return bucket != null && bucket.blockedUntil > System.currentTimeMillis();
+    }
+
+    /**
+     * 尝试从本地令牌桶中获取一个令牌
+     *
+     * @param address 客户端地址
+     * @return 是否获取成功，失败时调用方需要回落到Redis检查
+     */
+    public boolean tryAcquire(String address) {
+        Bucket bucket = buckets.get(address, key -> this.newBucket());
+        AtomicInteger tokens = bucket.tokens;
+        int current;
+        while ((current = tokens.get()) > 0) {
+            if (tokens.compareAndSet(current, current - 1)) {
+                // 取得令牌后桶恰好被淘汰，淘汰时已经取走了待上报计数，这一次单独上报
+                if (bucket.pending.getAndIncrement() < 0 && bucket.tracked) unreported.add(new Unreported(address, 1));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Redis检查拒绝请求后，在本地记录封禁，封禁期间不再访问Redis
+     *
+     * @param address 客户端地址
+     */
+    public void block(String address) {
+        Bucket bucket = buckets.get(address, key -> this.newBucket());
+        bucket.tracked = true;
+        bucket.tokens.set(0);
+        bucket.blockedUntil = System.currentTimeMillis() + block * 1000L;
+    }
+
+    /**
+     * 定期将本地已放行的请求批量上报Redis，并根据最新的集群计数重新发放本地令牌
+     */
+    void sync() {
+        try {
+            List<Report> reports = new ArrayList<>();
+            Unreported orphan;
+            while ((orphan = unreported.poll()) != null) {
+                reports.add(new Report(orphan.address(), null, orphan.permits()));
+            }
+            long window = this.window();
+            buckets.asMap().forEach((address, bucket) -> {
+                if (!bucket.tracked && this.renewAllowance(bucket, window)) return;
+                int permits = this.takePending(bucket);
+                if (permits < 0 || (permits == 0 && bucket.tokens.get() > 0)) return;
+                reports.add(new Report(address, bucket, permits));
+            });
+            for (int from = 0; from < reports.size(); from += PIPELINE_SIZE) {
+                this.report(reports.subList(from, Math.min(from + PIPELINE_SIZE, reports.size())));
+            }
+        } catch (RuntimeException e) {
+            log.warn("限流计数同步失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 通过一次管道调用上报一批客户端的计数，并发放本地令牌
+     *
+     * @param reports 待上报的客户端
+     */
+    private void report(List<Report> reports) {
+        List<FlowUtils.BatchItem> items = new ArrayList<>(reports.size());
+        for (Report report : reports) {
+            items.add(new FlowUtils.BatchItem(Const.FLOW_LIMIT_COUNTER + report.address(),
+                    Const.FLOW_LIMIT_BLOCK + report.address(), report.permits()));
+        }
+        List<Long> results;
+        try {
+            results = flowUtils.limitPeriodBatch(algorithm, items, block, limit, period);
+        } catch (RuntimeException e) {
+            // 上报失败时将计数还回去，下次同步再上报，期间不发放本地令牌
+            for (Report report : reports) {
+                if (report.bucket() == null) {
+                    unreported.add(new Unreported(report.address(), report.permits()));
+                } else {
+                    report.bucket().tokens.set(0);
+                    if (report.bucket().pending.getAndAdd(report.permits()) < 0 && report.permits() > 0) {
+                        unreported.add(new Unreported(report.address(), report.permits()));
+                    }
+                }
+            }
+            log.warn("限流计数同步失败: {}", e.getMessage());
+            return;
+        }
+        long threshold = (long) (limit * near);
+        for (int i = 0; i < reports.size(); i++) {
+            Report report = reports.get(i);
+            long count = results.get(i);
+            if (count < 0) {
+                this.block(report.address());
+            } else if (report.bucket() != null) {
+                report.bucket().tokens.set(count >= threshold ? 0 : (int) ((threshold - count) * ratio));
+            }
+        }
+    }
+
+    /**
+     * 处理尚未在Redis中计数的客户端，进入新周期时丢弃上一周期的本地计数并重新发放额度
+     *
+     * @param bucket 令牌桶
+     * @param window 当前周期编号
+     * @return 是否仍在本地额度内，额度耗尽时将客户端转为在Redis中计数，并返回false
+     */
+    private boolean renewAllowance(Bucket bucket, long window) {
+        if (bucket.window != window) {
+            bucket.window = window;
+            if (this.takePending(bucket) < 0) return true;
+            bucket.tokens.set(allowance);
+            return true;
+        }
+        if (bucket.tokens.get() > 0) return true;
+        bucket.tracked = true;
+        return false;
+    }
+
+    private Bucket newBucket() {
+        Bucket bucket = new Bucket();
+        bucket.window = this.window();
+        bucket.tracked = allowance <= 0;
+        bucket.tokens.set(Math.max(allowance, 0));
+        return bucket;
+    }
+
+    /**
+     * @return 当前周期编号
+     */
+    private long window() {
+        return System.currentTimeMillis() / (period * 1000L);
+    }
+
+    /**
+     * 取走令牌桶的待上报计数
+     *
+     * @param bucket 令牌桶
+     * @return 待上报计数，桶已被淘汰时返回-1
+     */
+    private int takePending(Bucket bucket) {
+        while (true) {
+            int pending = bucket.pending.get();
+            if (pending < 0) return -1;
+            if (bucket.pending.compareAndSet(pending, 0)) return pending;
+        }
+    }
+
+    /**
+     * 令牌桶被淘汰时收回剩余令牌，尚未上报的计数交给下次同步
+     *
+     * @param address 客户端地址
+     * @param bucket  令牌桶
+     */
+    private void retire(String address, Bucket bucket) {
+        bucket.tokens.set(0);
+        int permits = bucket.pending.getAndSet(RETIRED);
+        if (permits > 0 && bucket.tracked) unreported.add(new Unreported(address, permits));
+    }
+
+    /**
+     * 单个客户端的本地令牌桶
+     */
+    private static final class Bucket {
+        /**
+         * 本地可用令牌数
+         */
+        final AtomicInteger tokens = new AtomicInteger();
+        /**
+         * 本地已放行但尚未上报的请求数，桶被淘汰后为负数
+         */
+        final AtomicInteger pending = new AtomicInteger();
+        /**
+         * 本地封禁截止时间
+         */
+        volatile long blockedUntil;
+        /**
+         * 是否已在Redis中计数
+         */
+        volatile boolean tracked;
+        /**
+         * 本地额度所属的周期编号
+         */
+        volatile long window;
+    }
+
+    /**
+     * 令牌桶被淘汰后留下的待上报计数
+     */
+    private record Unreported(String address, int permits) {
+    }
+
+    /**
+     * 一次同步中需要上报的客户端，bucket为null表示已被淘汰
+     */
+    private record Report(String address, Bucket bucket, int permits) {
+    }
+}
@@ -0,0 +1,171 @@
+package io.github.yeyuhl.backend.utils;
+
+import java.util.Arrays;
+
+/**
+ * 以128位IP地址为键、long为值的开放寻址表
+ * 键与值全部保存在基本类型数组中，不为每个地址创建对象，内存占用固定为每个槽位32字节，
+ * 按键的哈希分为若干段，每段独立加锁，段内使用线性探测
+ * 每个槽位带有一个时间戳，调用方给出最小有效时间戳，早于它的槽位视为已过期，可以被新键复用，
+ * 因此同一张表既可以按窗口计数（时间戳为窗口编号），也可以记录封禁（时间戳为封禁截止时间）
+ *
+ * @author yeyuhl
+ * @since 2023/10/31
+ */
+public class IpCounterTable {
+    private static final int SEGMENTS = 64;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    /**
+     * @param capacity 总容量，会向上取整到2的幂
+     */
+    public IpCounterTable(int capacity) {
+        int perSegment = Integer.highestOneBit(Math.max(capacity / SEGMENTS, 16) - 1) << 1;
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+    }
+
+    /**
+     * 对键的值做累加，键不存在或已过期时从0开始
+     *
+     * @param key      键
+     * @param delta    增量
+     * @param stamp    本次写入的时间戳
+     * @param minStamp 最小有效时间戳
+     * @return 累加后的值，表已满时返回-1
+     */
+    public long addAndGet(IpKey key, long delta, long stamp, long minStamp) {
+        long hash = hash(key.high(), key.low());
+        return segments[(int) (hash >>> 58)].addAndGet(key.high(), key.low(), (int) hash, delta, stamp, minStamp);
+    }
+
+    /**
+     * 写入键的值
+     *
+     * @param key      键
+     * @param value    值
+     * @param stamp    本次写入的时间戳
+     * @param minStamp 最小有效时间戳
+     * @return 是否写入成功，表已满时返回false
+     */
+    public boolean put(IpKey key, long value, long stamp, long minStamp) {
+        long hash = hash(key.high(), key.low());
+        return segments[(int) (hash >>> 58)].put(key.high(), key.low(), (int) hash, value, stamp, minStamp);
+    }
+
+    /**
+     * 读取键的值
+     *
+     * @param key      键
+     * @param minStamp 最小有效时间戳
+     * @return 值，键不存在或已过期时返回0
+     */
+    public long get(IpKey key, long minStamp) {
+        long hash = hash(key.high(), key.low());
+        return segments[(int) (hash >>> 58)].get(key.high(), key.low(), (int) hash, minStamp);
+    }
+
+    /**
+     * 重新整理所有段，清除过期槽位，缩短探测链
+     *
+     * @param minStamp 最小有效时间戳
+     * @return 整理后仍然有效的键数量
+     */
+    public int purge(long minStamp) {
+        int live = 0;
+        for (Segment segment : segments) {
+            live += segment.purge(minStamp);
+        }
+        return live;
+    }
+
+    private static long hash(long high, long low) {
+        long h = high * 0x9E3779B97F4A7C15L ^ low;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * 单个分段，槽位时间戳为0表示从未使用
+     */
+    private static final class Segment {
+        private final int mask;
+        private final long[] highs;
+        private final long[] lows;
+        private final long[] values;
+        private final long[] stamps;
+
+        Segment(int capacity) {
+            this.mask = capacity - 1;
+            this.highs = new long[capacity];
+            this.lows = new long[capacity];
+            this.values = new long[capacity];
+            this.stamps = new long[capacity];
+        }
+
+        synchronized long addAndGet(long high, long low, int hash, long delta, long stamp, long minStamp) {
+            int slot = this.locate(high, low, hash, minStamp);
+            if (slot < 0) return -1;
+            long value = stamps[slot] >= minStamp && highs[slot] == high && lows[slot] == low ? values[slot] + delta : delta;
+            this.write(slot, high, low, value, stamp);
+            return value;
+        }
+
+        synchronized boolean put(long high, long low, int hash, long value, long stamp, long minStamp) {
+            int slot = this.locate(high, low, hash, minStamp);
+            if (slot < 0) return false;
+            this.write(slot, high, low, value, stamp);
+            return true;
+        }
+
+        synchronized long get(long high, long low, int hash, long minStamp) {
+            for (int i = 0, slot = hash & mask; i <= mask; i++, slot = (slot + 1) & mask) {
+                if (stamps[slot] == 0) return 0;
+                if (highs[slot] == high && lows[slot] == low) return stamps[slot] >= minStamp ? values[slot] : 0;
+            }
+            return 0;
+        }
+
+        synchronized int purge(long minStamp) {
+            long[] oldHighs = highs.clone(), oldLows = lows.clone(), oldValues = values.clone(), oldStamps = stamps.clone();
+            Arrays.fill(stamps, 0);
+            int live = 0;
+            for (int i = 0; i <= mask; i++) {
+                if (oldStamps[i] < minStamp) continue;
+                int slot = this.locate(oldHighs[i], oldLows[i], (int) hash(oldHighs[i], oldLows[i]), minStamp);
+                this.write(slot, oldHighs[i], oldLows[i], oldValues[i], oldStamps[i]);
+                live++;
+            }
+            return live;
+        }
+
+        /**
+         * 查找键所在的槽位，键不存在时返回探测链上第一个可复用的槽位
+         * 同一个键在段内最多只会占用一个槽位，无论是否过期
+         *
+         * @return 槽位，没有可用槽位时返回-1
+         */
+        private int locate(long high, long low, int hash, long minStamp) {
+            int reusable = -1;
+            for (int i = 0, slot = hash & mask; i <= mask; i++, slot = (slot + 1) & mask) {
+                if (stamps[slot] == 0) return reusable >= 0 ? reusable : slot;
+                if (highs[slot] == high && lows[slot] == low) return slot;
+                if (reusable < 0 && stamps[slot] < minStamp) reusable = slot;
+            }
+            return reusable;
+        }
+
+        private void write(int slot, long high, long low, long value, long stamp) {
+            highs[slot] = high;
+            lows[slot] = low;
+            values[slot] = value;
+            stamps[slot] = stamp;
+        }
+    }
+}
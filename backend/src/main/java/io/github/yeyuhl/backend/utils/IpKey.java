@@ -0,0 +1,158 @@
+package io.github.yeyuhl.backend.utils;
+
+/**
+ * 以两个long表示的128位IP地址
+ * IPv4地址按IPv4映射地址（::ffff:a.b.c.d）存放，因此IPv4与IPv6可以使用同一种键和同一套前缀运算，
+ * 解析过程不经过InetAddress，也不会产生中间字符串
+ *
+ * @param high 高64位
+ * @param low  低64位
+ * @author yeyuhl
+ * @since 2023/10/31
+ */
+public record IpKey(long high, long low) {
+    private static final long IPV4_MAPPED = 0xFFFF_0000_0000L;
+
+    /**
+     * 解析文本形式的IPv4或IPv6地址
+     *
+     * @param address 地址
+     * @return 解析结果，格式不正确时返回null
+     */
+    public static IpKey parse(String address) {
+        if (address == null || address.isEmpty()) return null;
+        int zone = address.indexOf('%');
+        int end = zone < 0 ? address.length() : zone;
+        if (address.indexOf(':') < 0) {
+            long v4 = parseIpv4(address, 0, end);
+            return v4 < 0 ? null : new IpKey(0, IPV4_MAPPED | v4);
+        }
+        return parseIpv6(address, end);
+    }
+
+    /**
+     * @return 是否为IPv4地址
+     */
+    public boolean isIpv4() {
+        return high == 0 && (low >>> 32) == 0xFFFF;
+    }
+
+    /**
+     * 取地址所在的网段，IPv4与IPv6分别使用各自的前缀长度
+     *
+     * @param ipv4Bits IPv4前缀长度，例如24
+     * @param ipv6Bits IPv6前缀长度，例如64
+     * @return 网段
+     */
+    public IpKey prefix(int ipv4Bits, int ipv6Bits) {
+        return this.mask(this.isIpv4() ? 96 + ipv4Bits : ipv6Bits);
+    }
+
+    /**
+     * 保留前bits位，其余清零
+     *
+     * @param bits 前缀长度，0到128
+     * @return 网段
+     */
+    public IpKey mask(int bits) {
+        if (bits >= 128) return this;
+        if (bits <= 0) return new IpKey(0, 0);
+        if (bits >= 64) return new IpKey(high, bits == 64 ? 0 : low & (-1L << (128 - bits)));
+        return new IpKey(high & (-1L << (64 - bits)), 0);
+    }
+
+    /**
+     * @return 32位十六进制字符串，用于拼接Redis键与频道消息
+     */
+    public String toHex() {
+        return String.format("%016x%016x", high, low);
+    }
+
+    /**
+     * 从toHex的结果还原
+     *
+     * @param hex 十六进制字符串
+     * @return 地址
+     */
+    public static IpKey fromHex(String hex) {
+        return new IpKey(Long.parseUnsignedLong(hex, 0, 16, 16), Long.parseUnsignedLong(hex, 16, 32, 16));
+    }
+
+    /**
+     * 解析点分十进制的IPv4地址
+     *
+     * @return 32位地址，格式不正确时返回-1
+     */
+    private static long parseIpv4(String s, int from, int to) {
+        long result = 0;
+        int parts = 0, value = -1;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                value = value < 0 ? c - '0' : value * 10 + (c - '0');
+                if (value > 255) return -1;
+            } else if (c == '.' && value >= 0 && parts < 3) {
+                result = result << 8 | value;
+                parts++;
+                value = -1;
+            } else {
+                return -1;
+            }
+        }
+        if (value < 0 || parts != 3) return -1;
+        return result << 8 | value;
+    }
+
+    /**
+     * 解析IPv6地址，支持::压缩与末尾内嵌IPv4的写法
+     */
+    private static IpKey parseIpv6(String s, int end) {
+        int[] groups = new int[8];
+        int count = 0, compress = -1, i = 0;
+        if (s.startsWith("::")) {
+            compress = 0;
+            i = 2;
+        }
+        while (i < end) {
+            if (count == 8) return null;
+            int start = i, value = 0;
+            while (i < end && Character.digit(s.charAt(i), 16) >= 0 && i - start < 4) {
+                value = value << 4 | Character.digit(s.charAt(i), 16);
+                i++;
+            }
+            if (i < end && s.charAt(i) == '.') {
+                // 末尾内嵌的IPv4地址占用两组
+                long v4 = parseIpv4(s, start, end);
+                if (v4 < 0 || count > 6) return null;
+                groups[count++] = (int) (v4 >>> 16);
+                groups[count++] = (int) (v4 & 0xFFFF);
+                i = end;
+                break;
+            }
+            if (i == start) return null;
+            groups[count++] = value;
+            if (i == end) break;
+            if (s.charAt(i) != ':') return null;
+            i++;
+            if (i < end && s.charAt(i) == ':') {
+                if (compress >= 0) return null;
+                compress = count;
+                i++;
+            } else if (i == end) {
+                return null;
+            }
+        }
+        if (compress >= 0) {
+            int shift = 8 - count;
+            if (shift == 0) return null;
+            System.arraycopy(groups, compress, groups, compress + shift, count - compress);
+            for (int j = compress; j < compress + shift; j++) groups[j] = 0;
+        } else if (count != 8) {
+            return null;
+        }
+        long high = 0, low = 0;
+        for (int j = 0; j < 4; j++) high = high << 16 | groups[j];
+        for (int j = 4; j < 8; j++) low = low << 16 | groups[j];
+        return new IpKey(high, low);
+    }
+}
@@ -0,0 +1,213 @@
+package io.github.yeyuhl.backend.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.SubscriptionListener;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Jwt令牌黑名单
+ * 几乎没有令牌会被拉黑，所以在本地维护一个已拉黑令牌ID的布隆过滤器，
+ * 只有过滤器判定可能存在时才去Redis确认，Redis的确认结果再放入近端缓存，
+ * 各节点通过Redis频道同步新拉黑的令牌，启动时以及定期通过SCAN重建过滤器以清理已过期的令牌，
+ * 频道通知可能丢失，因此订阅（包括断线重连后的重新订阅）完成与熔断器恢复时也会重建
+ *
+ * @author yeyuhl
+ * @since 2023/10/22
+ */
+@Slf4j
+@Component
+public class JwtBlacklist implements MessageListener, SubscriptionListener {
+    @Autowired
+    StringRedisTemplate redisTemplate;
+
+    @Autowired
+    RedisCircuitBreaker breaker;
+
+    /**
+     * 布隆过滤器预期容纳的拉黑令牌数量
+     */
+    @Value("${spring.security.jwt.blacklist.expected}")
+    private int expected;
+
+    /**
+     * 布隆过滤器期望误判率
+     */
+    @Value("${spring.security.jwt.blacklist.fpp}")
+    private double fpp;
+
+    /**
+     * 近端缓存存活时间，以秒为单位
+     */
+    @Value("${spring.security.jwt.blacklist.near-ttl}")
+    private int nearTtl;
+
+    private volatile BloomFilter filter;
+
+    /**
+     * 重建过程中的新过滤器，重建期间拉黑的令牌需要同时写入新旧两个过滤器
+     */
+    private volatile BloomFilter building;
+
+    /**
+     * 近端缓存，令牌ID -> 是否已被拉黑，用于过滤器误判或确认拉黑的令牌
+     */
+    private Cache<String, Boolean> nearCache;
+
+    /**
+     * 是否已有等待执行的重建
+     */
+    private final AtomicBoolean rebuildPending = new AtomicBoolean();
+
+    private ExecutorService executor;
+
+    @PostConstruct
+    public void init() {
+        this.nearCache = Caffeine.newBuilder()
+                .maximumSize(expected)
+                .expireAfterWrite(nearTtl, TimeUnit.SECONDS)
+                .build();
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "jwt-blacklist-rebuild");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.filter = new BloomFilter(expected, fpp);
+        this.rebuild();
+        breaker.addRecoveryListener(this::requestRebuild);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 通过SCAN遍历Redis中的黑名单重建布隆过滤器，已过期的令牌会自然被清理掉
+     */
+    @Scheduled(fixedDelay = 1, initialDelay = 1, timeUnit = TimeUnit.HOURS)
+    public synchronized void rebuild() {
+        BloomFilter next = new BloomFilter(expected, fpp);
+        this.building = next;
+        int count = 0;
+        ScanOptions options = ScanOptions.scanOptions().match(Const.JWT_BLACK_LIST + "*").count(1000).build();
+        try (Cursor<String> cursor = redisTemplate.scan(options)) {
+            while (cursor.hasNext()) {
+                next.put(cursor.next().substring(Const.JWT_BLACK_LIST.length()));
+                count++;
+            }
+            this.filter = next;
+            log.info("Jwt黑名单布隆过滤器已重建，共加载{}个令牌", count);
+        } catch (RuntimeException e) {
+            log.warn("Jwt黑名单布隆过滤器重建失败，继续使用旧的过滤器", e);
+        } finally {
+            this.building = null;
+        }
+    }
+
+    /**
+     * 在独立线程上重建过滤器，已有等待执行的重建时不再重复提交
+     */
+    public void requestRebuild() {
+        if (!rebuildPending.compareAndSet(false, true)) return;
+        try {
+            executor.execute(() -> {
+                rebuildPending.set(false);
+                this.rebuild();
+            });
+        } catch (RuntimeException e) {
+            rebuildPending.set(false);
+            log.warn("Jwt黑名单布隆过滤器重建提交失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 验证令牌是否已被拉黑，只有布隆过滤器判定可能存在时才会访问Redis
+     *
+     * @param jti 令牌ID
+     * @return 是否已被拉黑
+     */
+    public boolean isRevoked(String jti) {
+        Boolean cached = nearCache.getIfPresent(jti);
+        if (cached != null) return cached;
+        if (!filter.mightContain(jti)) return false;
+        Boolean revoked = breaker.execute(() -> redisTemplate.hasKey(Const.JWT_BLACK_LIST + jti), () -> null);
+        // Redis不可用时本地数据无法给出结论，按降级策略处理，且不写入近端缓存
+        if (revoked == null) return breaker.policy() == RedisCircuitBreaker.Policy.FAIL_CLOSED;
+        nearCache.put(jti, revoked);
+        return revoked;
+    }
+
+    /**
+     * 将令牌列入黑名单，并通知其他节点
+     *
+     * @param jti  令牌ID
+     * @param time 令牌过期时间
+     * @return 是否操作成功，令牌已在黑名单中或Redis不可用时返回false
+     */
+    public boolean revoke(String jti, Date time) {
+        if (this.isRevoked(jti))
+            return false;
+        long expire = Math.max(time.getTime() - System.currentTimeMillis(), 0);
+        boolean stored = breaker.execute(() -> {
+            redisTemplate.opsForValue().set(Const.JWT_BLACK_LIST + jti, "", expire, TimeUnit.MILLISECONDS);
+            return true;
+        }, () -> false);
+        // 写入Redis之后再写入本地过滤器，此后开始的重建一定能扫描到该令牌；Redis不可用时至少在本节点拉黑
+        this.addLocal(jti);
+        if (!stored) return false;
+        // 通知丢失时其他节点在重新订阅或熔断恢复后重建
+        breaker.execute(() -> {
+            redisTemplate.convertAndSend(Const.JWT_BLACK_LIST_CHANNEL, jti);
+            return true;
+        }, () -> false);
+        return true;
+    }
+
+    /**
+     * 接收其他节点拉黑令牌的通知
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        this.addLocal(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 订阅完成时重建，补上启动加载之后、订阅生效之前以及断线期间其他节点拉黑的令牌
+     */
+    @Override
+    public void onChannelSubscribed(byte[] channel, long count) {
+        this.requestRebuild();
+    }
+
+    /**
+     * 将令牌加入本地过滤器与近端缓存
+     *
+     * @param jti 令牌ID
+     */
+    private void addLocal(String jti) {
+        // 先读取重建中的过滤器，读到null时说明重建已经完成，filter已是新的过滤器
+        BloomFilter next = building;
+        if (next != null) next.put(jti);
+        filter.put(jti);
+        nearCache.put(jti, true);
+    }
+}
@@ -0,0 +1,133 @@
+package io.github.yeyuhl.backend.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.github.yeyuhl.backend.entity.dto.JwtPrincipal;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 已验证Jwt令牌的本地缓存
+ * 同一个令牌在一次会话中会被反复携带，缓存验证结果可以省去HMAC校验、声明解析以及黑名单查询
+ * 缓存以令牌摘要为键，条目在令牌过期时间与缓存TTL中较早的时刻失效，
+ * 本节点注销时会立即移除对应条目，命中时仍会查询本地黑名单，其他节点的注销通过黑名单频道同步，
+ * 即使通知丢失，条目最多也只会在TTL之后失效
+ *
+ * @author yeyuhl
+ * @since 2023/10/21
+ */
+@Component
+public class JwtCache {
+    /**
+     * 缓存的最大条目数
+     */
+    @Value("${spring.security.jwt.cache.size}")
+    private long size;
+
+    /**
+     * 缓存条目的最长存活时间，以秒为单位，也是其他节点注销后的最大延迟
+     */
+    @Value("${spring.security.jwt.cache.ttl}")
+    private int ttl;
+
+    private Cache<String, JwtPrincipal> cache;
+
+    /**
+     * MessageDigest不是线程安全的，每个线程持有一个实例
+     */
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    @PostConstruct
+    public void init() {
+        long ttlNanos = TimeUnit.SECONDS.toNanos(ttl);
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(size)
+                .expireAfter(new Expiry<String, JwtPrincipal>() {
+                    @Override
+                    public long expireAfterCreate(String key, JwtPrincipal value, long currentTime) {
+                        long remaining = TimeUnit.MILLISECONDS.toNanos(value.expiresAt() - System.currentTimeMillis());
+                        return Math.max(Math.min(ttlNanos, remaining), 0);
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, JwtPrincipal value, long currentTime, long currentDuration) {
+                        return this.expireAfterCreate(key, value, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, JwtPrincipal value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * 查询令牌对应的已验证身份
+     *
+     * @param token 令牌
+     * @return 身份信息，未命中时返回null
+     */
+    public JwtPrincipal get(String token) {
+        return cache.getIfPresent(this.digest(token));
+    }
+
+    /**
+     * 缓存令牌验证结果
+     *
+     * @param token     令牌
+     * @param principal 身份信息
+     */
+    public void put(String token, JwtPrincipal principal) {
+        cache.put(this.digest(token), principal);
+    }
+
+    /**
+     * 移除令牌对应的缓存
+     *
+     * @param token 令牌
+     */
+    public void evict(String token) {
+        cache.invalidate(this.digest(token));
+    }
+
+    /**
+     * @return 缓存命中次数
+     */
+    public long hitCount() {
+        return cache.stats().hitCount();
+    }
+
+    /**
+     * @return 缓存未命中次数
+     */
+    public long missCount() {
+        return cache.stats().missCount();
+    }
+
+    /**
+     * 计算令牌摘要作为缓存键，避免长期持有完整令牌
+     *
+     * @param token 令牌
+     * @return 摘要
+     */
+    private String digest(String token) {
+        byte[] hash = DIGEST.get().digest(token.getBytes(StandardCharsets.US_ASCII));
+        return Base64.getEncoder().withoutPadding().encodeToString(hash);
+    }
+}
@@ -0,0 +1,308 @@
+package io.github.yeyuhl.backend.utils;
+
+import io.github.yeyuhl.backend.entity.dto.JwtPrincipal;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 针对JwtUtils.createJwt签发的令牌的快速解析器（声明集合：id、name、ep、authorities、exp、iat、jti）
+ * 通用库会把各段Base64解码为字符串、构建Jackson树以及Map&lt;String, Claim&gt;，
+ * 而本解析器直接在原始字节上校验HMAC，并按固定的声明集合提取字段，每个线程复用缓冲区，
+ * 头部不匹配、出现未知声明或转义字符等任何无法识别的情况都返回null，由调用方回退到通用库，
+ * 头部与某个密钥完全匹配但签名错误或已过期的令牌返回INVALID，调用方直接拒绝，不必再由通用库验证一次
+ *
+ * @author yeyuhl
+ * @since 2023/10/23
+ */
+@Component
+public class JwtFastParser {
+    @Autowired
+    JwtKeyRing keyRing;
+
+    /**
+     * Base64URL字符到6位值的映射，非法字符为-1
+     */
+    private static final byte[] BASE64_URL = new byte[128];
+
+    static {
+        Arrays.fill(BASE64_URL, (byte) -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64_URL[alphabet.charAt(i)] = (byte) i;
+        }
+    }
+
+    /**
+     * 已识别但签名错误或已过期的令牌，只用于引用比较
+     */
+    public static final JwtPrincipal INVALID = new JwtPrincipal(-1, "", List.of(), "", 0, 0);
+
+    /**
+     * 每个线程复用的解析缓冲区
+     */
+    private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+    /**
+     * 解析并校验令牌
+     *
+     * @param token 不带Bearer前缀的令牌
+     * @return 用户身份，无法识别时返回null，签名错误或已过期时返回INVALID
+     */
+    public JwtPrincipal parse(String token) {
+        int dot1 = token.indexOf('.');
+        if (dot1 < 0) return null;
+        int dot2 = token.indexOf('.', dot1 + 1);
+        if (dot2 < 0 || token.indexOf('.', dot2 + 1) >= 0) return null;
+        JwtKeyRing.SigningKey signingKey = this.matchHeader(token, dot1);
+        if (signingKey == null) return null;
+        Buffers buffers = BUFFERS.get();
+        // 头部已与该密钥签发的令牌完全一致，通用库也会使用同一个密钥，签名错误即可直接判定无效
+        if (!this.verifySignature(signingKey.mac(), token, dot2, buffers)) return INVALID;
+        int length = decodeBase64Url(token, dot1 + 1, dot2, buffers.payload(dot2 - dot1));
+        if (length < 0) return null;
+        Claims claims = new PayloadReader(buffers.payload, length).read();
+        if (claims == null) return null;
+        if (claims.exp * 1000 < System.currentTimeMillis()) return INVALID;
+        return new JwtPrincipal(claims.id, claims.name, claims.authorities, claims.jti, claims.exp * 1000, claims.ep);
+    }
+
+    /**
+     * 根据头部片段找到对应的密钥，头部必须与该密钥签发时的片段完全一致
+     *
+     * @param token 令牌
+     * @param dot1  第一个点的位置
+     * @return 签名密钥，找不到时返回null
+     */
+    private JwtKeyRing.SigningKey matchHeader(String token, int dot1) {
+        for (JwtKeyRing.SigningKey key : keyRing.fastKeys()) {
+            String header = key.header();
+            if (header.length() == dot1 && token.regionMatches(0, header, 0, dot1)) return key;
+        }
+        return null;
+    }
+
+    /**
+     * 在原始字节上计算HMAC并与签名段做常量时间比较
+     *
+     * @param mac     当前线程的HMAC实例
+     * @param token   令牌
+     * @param dot2    第二个点的位置
+     * @param buffers 线程缓冲区
+     * @return 签名是否正确
+     */
+    private boolean verifySignature(Mac mac, String token, int dot2, Buffers buffers) {
+        byte[] signed = buffers.signed(dot2);
+        for (int i = 0; i < dot2; i++) {
+            char c = token.charAt(i);
+            if (c >= 128) return false;
+            signed[i] = (byte) c;
+        }
+        mac.update(signed, 0, dot2);
+        try {
+            mac.doFinal(buffers.expected, 0);
+        } catch (ShortBufferException e) {
+            return false;
+        }
+        int length = decodeBase64Url(token, dot2 + 1, token.length(), buffers.actual);
+        return length == buffers.expected.length && MessageDigest.isEqual(buffers.expected, buffers.actual);
+    }
+
+    /**
+     * 将Base64URL片段解码到目标数组中
+     *
+     * @param source 源字符串
+     * @param from   起始位置
+     * @param to     结束位置（不包含）
+     * @param target 目标数组
+     * @return 解码得到的字节数，非法输入或目标数组不足时返回-1
+     */
+    private static int decodeBase64Url(String source, int from, int to, byte[] target) {
+        int length = to - from;
+        if (length % 4 == 1) return -1;
+        int size = length / 4 * 3 + Math.max(length % 4 - 1, 0);
+        if (size > target.length) return -1;
+        int bits = 0, count = 0, out = 0;
+        for (int i = from; i < to; i++) {
+            char c = source.charAt(i);
+            int value = c < 128 ? BASE64_URL[c] : -1;
+            if (value < 0) return -1;
+            bits = (bits << 6) | value;
+            count += 6;
+            if (count >= 8) {
+                count -= 8;
+                target[out++] = (byte) (bits >> count);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * 线程私有的缓冲区
+     */
+    private static final class Buffers {
+        private final byte[] expected = new byte[32];
+        private final byte[] actual = new byte[32];
+        private byte[] signed = new byte[512];
+        private byte[] payload = new byte[512];
+
+        private byte[] signed(int size) {
+            if (signed.length < size) signed = new byte[size];
+            return signed;
+        }
+
+        private byte[] payload(int encodedSize) {
+            int size = encodedSize / 4 * 3 + 3;
+            if (payload.length < size) payload = new byte[size];
+            return payload;
+        }
+    }
+
+    /**
+     * 解析得到的声明
+     */
+    private static final class Claims {
+        int id = -1;
+        String name;
+        List<String> authorities;
+        String jti;
+        long exp = -1;
+        long ep;
+    }
+
+    /**
+     * 只识别createJwt所写入声明的极简JSON读取器
+     */
+    private static final class PayloadReader {
+        private final byte[] data;
+        private final int length;
+        private int pos;
+
+        private PayloadReader(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+
+        /**
+         * @return 解析得到的声明，格式不符合预期时返回null
+         */
+        private Claims read() {
+            Claims claims = new Claims();
+            if (!this.expect('{')) return null;
+            if (this.peek() == '}') return null;
+            do {
+                int keyStart = pos + 1;
+                if (this.skipString() < 0) return null;
+                int keyLength = pos - keyStart - 1;
+                if (!this.expect(':')) return null;
+                if (!this.readClaim(claims, keyStart, keyLength)) return null;
+            } while (this.expect(','));
+            if (!this.expect('}') || pos != length) return null;
+            if (claims.id < 0 || claims.name == null || claims.authorities == null
+                    || claims.jti == null || claims.exp < 0) return null;
+            return claims;
+        }
+
+        /**
+         * 按声明名称读取对应的值，出现未知声明时返回false
+         */
+        private boolean readClaim(Claims claims, int keyStart, int keyLength) {
+            if (this.keyEquals(keyStart, keyLength, "id")) {
+                long id = this.readLong();
+                if (id < 0 || id > Integer.MAX_VALUE) return false;
+                claims.id = (int) id;
+            } else if (this.keyEquals(keyStart, keyLength, "name")) {
+                claims.name = this.readString();
+                return claims.name != null;
+            } else if (this.keyEquals(keyStart, keyLength, "jti")) {
+                claims.jti = this.readString();
+                return claims.jti != null;
+            } else if (this.keyEquals(keyStart, keyLength, "exp")) {
+                claims.exp = this.readLong();
+                return claims.exp >= 0;
+            } else if (this.keyEquals(keyStart, keyLength, "ep")) {
+                claims.ep = this.readLong();
+                return claims.ep >= 0;
+            } else if (this.keyEquals(keyStart, keyLength, "iat")) {
+                return this.readLong() >= 0;
+            } else if (this.keyEquals(keyStart, keyLength, "authorities")) {
+                claims.authorities = this.readStringArray();
+                return claims.authorities != null;
+            } else {
+                return false;
+            }
+            return true;
+        }
+
+        private boolean keyEquals(int start, int keyLength, String key) {
+            if (keyLength != key.length()) return false;
+            for (int i = 0; i < keyLength; i++) {
+                if (data[start + i] != key.charAt(i)) return false;
+            }
+            return true;
+        }
+
+        private long readLong() {
+            int start = pos;
+            long value = 0;
+            while (pos < length && data[pos] >= '0' && data[pos] <= '9') {
+                value = value * 10 + (data[pos++] - '0');
+                if (value < 0) return -1;
+            }
+            return pos == start ? -1 : value;
+        }
+
+        private String readString() {
+            int start = pos + 1;
+            if (this.skipString() < 0) return null;
+            return new String(data, start, pos - start - 1, StandardCharsets.UTF_8);
+        }
+
+        private List<String> readStringArray() {
+            if (!this.expect('[')) return null;
+            List<String> list = new ArrayList<>(2);
+            if (this.expect(']')) return list;
+            do {
+                String value = this.readString();
+                if (value == null) return null;
+                list.add(value);
+            } while (this.expect(','));
+            return this.expect(']') ? List.copyOf(list) : null;
+        }
+
+        /**
+         * 跳过一个字符串，包含转义字符时放弃快速解析
+         *
+         * @return 字符串结束后的位置，失败返回-1
+         */
+        private int skipString() {
+            if (pos >= length || data[pos] != '"') return -1;
+            pos++;
+            while (pos < length) {
+                byte b = data[pos++];
+                if (b == '"') return pos;
+                if (b == '\\') return -1;
+            }
+            return -1;
+        }
+
+        private int peek() {
+            return pos < length ? data[pos] : -1;
+        }
+
+        private boolean expect(char c) {
+            if (pos < length && data[pos] == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package io.github.yeyuhl.backend.utils;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.JWTVerifier;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JWT签名密钥环
+ * 启动时预先构建好Algorithm与JWTVerifier（二者都是线程安全的），避免每次请求都重新创建
+ * 每个轮换周期的密钥由主密钥通过HMAC派生，集群中所有节点无需协调即可得到相同的密钥，
+ * 令牌头部携带kid用于选择对应的验证器，旧密钥会保留一个重叠窗口，保证已签发的令牌在过期前仍可验证，
+ * 下一个周期的密钥也提前派生，周期切换时先轮换（或时钟稍快）的节点签发的令牌在其他节点上同样可以验证
+ *
+ * @author yeyuhl
+ * @since 2023/10/20
+ */
+@Slf4j
+@Component
+public class JwtKeyRing {
+    /**
+     * JWT主密钥
+     */
+    @Value("${spring.security.jwt.key}")
+    private String key;
+
+    /**
+     * JWT过期时间，以小时为单位，用于计算旧密钥需要保留多久
+     */
+    @Value("${spring.security.jwt.expire}")
+    private int expire;
+
+    /**
+     * 访问令牌过期时间，以分钟为单位，配置后取代expire
+     */
+    @Value("${spring.security.jwt.access-expire:0}")
+    private int accessExpire;
+
+    /**
+     * 密钥轮换周期，以小时为单位
+     */
+    @Value("${spring.security.jwt.rotation.period}")
+    private int period;
+
+    /**
+     * 当前用于签名的密钥
+     */
+    private volatile SigningKey current;
+
+    /**
+     * 所有仍可用于验证的密钥，kid -> 密钥，整体替换而不是原地修改，读取时无需加锁
+     */
+    private volatile Map<String, SigningKey> keys = Map.of();
+
+    /**
+     * 未携带kid的旧版令牌使用主密钥直接验证
+     */
+    private SigningKey legacy;
+
+    /**
+     * 快速解析器使用的全部密钥，包括旧版主密钥
+     */
+    private volatile SigningKey[] fastKeys = new SigningKey[0];
+
+    @PostConstruct
+    public void init() {
+        this.legacy = new SigningKey(null, key.getBytes(StandardCharsets.UTF_8));
+        this.rotate();
+    }
+
+    /**
+     * 定期检查是否进入了新的轮换周期，如果是则生成新密钥并淘汰超出重叠窗口的旧密钥
+     */
+    @Scheduled(fixedDelay = 1, timeUnit = TimeUnit.MINUTES)
+    public void rotate() {
+        long index = this.periodIndex();
+        String kid = Long.toString(index);
+        if (current != null && current.kid().equals(kid)) return;
+        // 保留的旧密钥数量需要覆盖令牌的整个有效期
+        int lifetime = accessExpire > 0 ? accessExpire : expire * 60;
+        int periodMinutes = period * 60;
+        int retained = (lifetime + periodMinutes - 1) / periodMinutes;
+        Map<String, SigningKey> next = new HashMap<>();
+        for (long i = index - retained; i <= index + 1; i++) {
+            String id = Long.toString(i);
+            SigningKey existing = keys.get(id);
+            next.put(id, existing != null ? existing : this.deriveKey(id));
+        }
+        this.keys = Map.copyOf(next);
+        this.current = next.get(kid);
+        SigningKey[] all = next.values().toArray(new SigningKey[next.size() + 1]);
+        all[next.size()] = legacy;
+        this.fastKeys = all;
+        log.info("JWT签名密钥已轮换，当前kid: {}，保留密钥数量: {}", kid, next.size());
+    }
+
+    /**
+     * 获取当前用于签名的密钥，已进入下一个周期但还未轮换时直接使用提前派生的密钥
+     *
+     * @return 签名密钥
+     */
+    public SigningKey current() {
+        SigningKey signingKey = current;
+        long index = this.periodIndex();
+        if (Long.parseLong(signingKey.kid()) == index) return signingKey;
+        SigningKey next = keys.get(Long.toString(index));
+        return next != null ? next : signingKey;
+    }
+
+    /**
+     * 获取全部可用于验证的密钥，供快速解析器按令牌头部匹配
+     *
+     * @return 密钥数组，调用方不应修改
+     */
+    public SigningKey[] fastKeys() {
+        return fastKeys;
+    }
+
+    /**
+     * 根据令牌头部的kid选择验证器并验证令牌
+     *
+     * @param token 令牌
+     * @return 验证通过的DecodedJWT
+     * @throws JWTVerificationException 令牌无效或kid未知时抛出
+     */
+    public DecodedJWT verify(String token) throws JWTVerificationException {
+        DecodedJWT jwt = JWT.decode(token);
+        String kid = jwt.getKeyId();
+        SigningKey signingKey = kid == null ? legacy : keys.get(kid);
+        if (signingKey == null) {
+            throw new JWTVerificationException("Unknown key id: " + kid);
+        }
+        return signingKey.verifier().verify(jwt);
+    }
+
+    /**
+     * @return 当前时间所处的轮换周期序号
+     */
+    private long periodIndex() {
+        return System.currentTimeMillis() / TimeUnit.HOURS.toMillis(period);
+    }
+
+    /**
+     * 由主密钥派生指定周期的密钥
+     *
+     * @param kid 密钥ID
+     * @return 签名密钥
+     */
+    private SigningKey deriveKey(String kid) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+            byte[] secret = mac.doFinal(("jwt-key:" + kid).getBytes(StandardCharsets.UTF_8));
+            return new SigningKey(kid, secret);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("无法派生JWT签名密钥", e);
+        }
+    }
+
+    /**
+     * 签名密钥，包含预先构建好的算法与验证器
+     * 同时保存原始密钥与该密钥签发令牌时固定的头部片段，供快速解析器直接校验字节
+     */
+    public static final class SigningKey {
+        private final String kid;
+        private final Algorithm algorithm;
+        private final JWTVerifier verifier;
+        private final String header;
+        private final ThreadLocal<Mac> mac;
+
+        private SigningKey(String kid, byte[] secret) {
+            this.kid = kid;
+            this.algorithm = Algorithm.HMAC256(secret);
+            this.verifier = JWT.require(algorithm).build();
+            String sample = kid == null ? JWT.create().sign(algorithm) : JWT.create().withKeyId(kid).sign(algorithm);
+            this.header = sample.substring(0, sample.indexOf('.'));
+            SecretKeySpec spec = new SecretKeySpec(secret, "HmacSHA256");
+            this.mac = ThreadLocal.withInitial(() -> {
+                try {
+                    Mac instance = Mac.getInstance("HmacSHA256");
+                    instance.init(spec);
+                    return instance;
+                } catch (GeneralSecurityException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        }
+
+        /**
+         * @return 密钥ID，旧版主密钥为null
+         */
+        public String kid() {
+            return kid;
+        }
+
+        /**
+         * @return 签名算法
+         */
+        public Algorithm algorithm() {
+            return algorithm;
+        }
+
+        /**
+         * @return 验证器
+         */
+        public JWTVerifier verifier() {
+            return verifier;
+        }
+
+        /**
+         * @return 该密钥签发的令牌固定的Base64URL头部片段
+         */
+        public String header() {
+            return header;
+        }
+
+        /**
+         * @return 当前线程专用的、已初始化的HMAC实例
+         */
+        public Mac mac() {
+            return mac.get();
+        }
+    }
+}
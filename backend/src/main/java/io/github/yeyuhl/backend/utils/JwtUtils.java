@@ -1,14 +1,14 @@
 package io.github.yeyuhl.backend.utils;
 
 import com.auth0.jwt.JWT;
-import com.auth0.jwt.JWTVerifier;
-import com.auth0.jwt.algorithms.Algorithm;
 import com.auth0.jwt.exceptions.JWTVerificationException;
 import com.auth0.jwt.interfaces.Claim;
 import com.auth0.jwt.interfaces.DecodedJWT;
+import io.github.yeyuhl.backend.entity.dto.JwtPrincipal;
+import io.github.yeyuhl.backend.utils.jfr.JwtEvent;
+import io.github.yeyuhl.backend.utils.limit.LimitAlgorithm;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.userdetails.User;
 import org.springframework.security.core.userdetails.UserDetails;
@@ -16,9 +16,10 @@ import org.springframework.stereotype.Component;
 
 import java.util.Calendar;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
-import java.util.concurrent.TimeUnit;
 
 /**
  * JWT工具类，主要用于生成和解析JWT
@@ -29,16 +30,16 @@ import java.util.concurrent.TimeUnit;
 @Component
 public class JwtUtils {
     /**
-     * JWT加密密钥
+     * JWT过期时间，以小时为单位，未配置access-expire时使用
      */
-    @Value("${spring.security.jwt.key}")
-    private String key;
+    @Value("${spring.security.jwt.expire}")
+    private int expire;
 
     /**
-     * JWT过期时间
+     * 访问令牌过期时间，以分钟为单位，配置后取代expire，过期后通过刷新令牌换取新的访问令牌
      */
-    @Value("${spring.security.jwt.expire}")
-    private int expire;
+    @Value("${spring.security.jwt.access-expire:0}")
+    private int accessExpire;
 
     /**
      * 为用户生成Jwt令牌的冷却时间，防止刷接口频繁登录生成令牌，以秒为单位
@@ -59,14 +60,44 @@ public class JwtUtils {
     private int limit_frequency;
 
     /**
-     * Redis操作模板
+     * 令牌申请频率检测使用的限流算法
      */
-    @Autowired
-    StringRedisTemplate redisTemplate;
+    @Value("${spring.security.jwt.limit.algorithm}")
+    private LimitAlgorithm limit_algorithm;
 
     @Autowired
     FlowUtils flowUtils;
 
+    /**
+     * 预先构建好的签名密钥环
+     */
+    @Autowired
+    JwtKeyRing keyRing;
+
+    /**
+     * 已验证令牌的本地缓存
+     */
+    @Autowired
+    JwtCache jwtCache;
+
+    /**
+     * 针对本系统签发令牌的快速解析器
+     */
+    @Autowired
+    JwtFastParser fastParser;
+
+    /**
+     * 令牌黑名单
+     */
+    @Autowired
+    JwtBlacklist blacklist;
+
+    /**
+     * 用户级别的吊销纪元
+     */
+    @Autowired
+    RevocationEpochs epochs;
+
     /**
      * 让指定Jwt令牌失效
      *
@@ -75,16 +106,36 @@ public class JwtUtils {
      */
     public boolean invalidateJwt(String headerToken) {
         String token = this.convertToken(headerToken);
-        Algorithm algorithm = Algorithm.HMAC256(key);
-        JWTVerifier jwtVerifier = JWT.require(algorithm).build();
+        if (token == null) return false;
+        jwtCache.evict(token);
         try {
-            DecodedJWT verify = jwtVerifier.verify(token);
+            DecodedJWT verify = keyRing.verify(token);
             return deleteToken(verify.getId(), verify.getExpiresAt());
         } catch (JWTVerificationException e) {
             return false;
         }
     }
 
+    /**
+     * 让指定用户此前签发的所有Jwt令牌失效，例如所有设备退出登录或重置密码之后
+     *
+     * @param userId 用户ID
+     * @return 是否操作成功，Redis不可用时返回false
+     */
+    public boolean invalidateAllJwt(int userId) {
+        return epochs.bump(userId);
+    }
+
+    /**
+     * 让指定用户此前签发的所有Jwt令牌失效，Redis不可用时在恢复后重试
+     *
+     * @param userId 用户ID
+     * @return 是否已经生效，返回false时将在Redis恢复后生效
+     */
+    public boolean invalidateAllJwtOrRetry(int userId) {
+        return epochs.bumpOrRetry(userId);
+    }
+
     /**
      * 根据配置快速计算过期时间
      *
@@ -92,7 +143,11 @@ public class JwtUtils {
      */
     public Date expireTime() {
         Calendar calendar = Calendar.getInstance();
-        calendar.add(Calendar.HOUR, expire);
+        if (accessExpire > 0) {
+            calendar.add(Calendar.MINUTE, accessExpire);
+        } else {
+            calendar.add(Calendar.HOUR, expire);
+        }
         return calendar.getTime();
     }
 
@@ -100,72 +155,156 @@ public class JwtUtils {
      * 根据UserDetails生成对应的Jwt令牌
      *
      * @param user 用户信息
-     * @return 令牌
+     * @return 令牌，申请过于频繁或暂时无法签发时返回null
      */
     public String createJwt(UserDetails user, String username, int userId) {
-        if (this.frequencyCheck(userId)) {
-            Algorithm algorithm = Algorithm.HMAC256(key);
-            Date expire = this.expireTime();
-            return JWT.create()
-                    .withJWTId(UUID.randomUUID().toString())
-                    .withClaim("id", userId)
-                    .withClaim("name", username)
-                    .withClaim("authorities", user.getAuthorities()
-                            .stream()
-                            .map(GrantedAuthority::getAuthority).toList())
-                    .withExpiresAt(expire)
-                    .withIssuedAt(new Date())
-                    .sign(algorithm);
+        JwtEvent event = new JwtEvent();
+        event.begin();
+        String jwt = null;
+        String outcome;
+        // 无法签发时不消耗申请次数
+        if (!this.issuable(userId)) {
+            outcome = "unavailable";
+        } else if (!this.frequencyCheck(userId)) {
+            outcome = "throttled";
         } else {
-            return null;
+            jwt = this.signJwt(userId, username, user.getAuthorities()
+                    .stream()
+                    .map(GrantedAuthority::getAuthority).toList());
+            outcome = jwt == null ? "unavailable" : "issued";
         }
+        if (event.shouldCommit()) {
+            event.operation = "create";
+            event.outcome = outcome;
+            event.userId = userId;
+            event.commit();
+        }
+        return jwt;
+    }
+
+    /**
+     * 直接签发访问令牌，不做频率检测，供刷新令牌轮换时使用
+     *
+     * @param userId      用户ID
+     * @param username    用户名
+     * @param authorities 用户权限
+     * @return 令牌，无法获取用户的吊销纪元时返回null
+     */
+    public String signJwt(int userId, String username, List<String> authorities) {
+        Long epoch = epochs.forIssue(userId);
+        if (epoch == null) return null;
+        JwtKeyRing.SigningKey signingKey = keyRing.current();
+        Date expire = this.expireTime();
+        return JWT.create()
+                .withKeyId(signingKey.kid())
+                .withJWTId(UUID.randomUUID().toString())
+                .withClaim("id", userId)
+                .withClaim("name", username)
+                .withClaim("ep", epoch)
+                .withClaim("authorities", authorities)
+                .withExpiresAt(expire)
+                .withIssuedAt(new Date())
+                .sign(signingKey.algorithm());
+    }
+
+    /**
+     * 判断当前能否为用户签发令牌，Redis不可用且没有该用户的纪元快照时无法签发
+     *
+     * @param userId 用户ID
+     * @return 能否签发
+     */
+    public boolean issuable(int userId) {
+        return epochs.forIssue(userId) != null;
     }
 
     /**
-     * 解析Jwt令牌
+     * 解析Jwt令牌，优先从本地缓存中获取已验证的结果
      *
      * @param headerToken 请求头中携带的令牌
-     * @return DecodedJWT
+     * @return 令牌中的用户身份，令牌无效时返回null
      */
-    public DecodedJWT resolveJwt(String headerToken) {
+    public JwtPrincipal resolveJwt(String headerToken) {
+        JwtEvent event = new JwtEvent();
+        event.begin();
+        String outcome;
+        JwtPrincipal principal = null;
         String token = this.convertToken(headerToken);
-        if (token == null) return null;
-        Algorithm algorithm = Algorithm.HMAC256(key);
-        JWTVerifier jwtVerifier = JWT.require(algorithm).build();
+        if (token == null) {
+            outcome = "none";
+        } else if ((principal = jwtCache.get(token)) != null) {
+            outcome = "cached";
+        } else {
+            // 优先使用快速解析器，无法识别的令牌再交给通用库处理，已识别但无效的令牌直接拒绝
+            principal = fastParser.parse(token);
+            outcome = "fast";
+            if (principal == JwtFastParser.INVALID) {
+                principal = null;
+                outcome = "invalid";
+            } else if (principal == null) {
+                principal = this.verifyJwt(token);
+                outcome = principal == null ? "invalid" : "verified";
+            }
+        }
+        if (principal != null && this.isRevoked(principal)) {
+            outcome = "revoked";
+            principal = null;
+        } else if (principal != null && !"cached".equals(outcome)) {
+            jwtCache.put(token, principal);
+        }
+        if (event.shouldCommit()) {
+            event.operation = "resolve";
+            event.outcome = outcome;
+            event.userId = principal == null ? 0 : principal.id();
+            event.commit();
+        }
+        return principal;
+    }
+
+    /**
+     * 使用通用库验证并解析Jwt令牌
+     *
+     * @param token 令牌
+     * @return 令牌中的用户身份，令牌无效或已过期时返回null
+     */
+    public JwtPrincipal verifyJwt(String token) {
         try {
-            DecodedJWT verify = jwtVerifier.verify(token);
-            if (this.isInvalidToken(verify.getId())) return null;
+            DecodedJWT verify = keyRing.verify(token);
             Map<String, Claim> claims = verify.getClaims();
-            return new Date().after(claims.get("exp").asDate()) ? null : verify;
+            return new Date().after(claims.get("exp").asDate()) ? null : this.toPrincipal(verify);
         } catch (JWTVerificationException e) {
             return null;
         }
     }
 
     /**
-     * 将jwt对象中的内容封装为UserDetails
+     * 将用户身份封装为UserDetails
      *
-     * @param jwt 已解析的Jwt对象
+     * @param principal 已解析的用户身份
      * @return UserDetails
      */
-    public UserDetails toUser(DecodedJWT jwt) {
-        Map<String, Claim> claims = jwt.getClaims();
+    public UserDetails toUser(JwtPrincipal principal) {
         return User
-                .withUsername(claims.get("name").asString())
+                .withUsername(principal.username())
                 .password("******")
-                .authorities(claims.get("authorities").asArray(String.class))
+                .authorities(principal.authorities().toArray(String[]::new))
                 .build();
     }
 
     /**
-     * 将jwt对象中的用户ID提取出来
+     * 将jwt对象中的内容提取为用户身份
      *
      * @param jwt 已解析的Jwt对象
-     * @return 用户ID
+     * @return 用户身份
      */
-    public Integer toId(DecodedJWT jwt) {
+    private JwtPrincipal toPrincipal(DecodedJWT jwt) {
         Map<String, Claim> claims = jwt.getClaims();
-        return claims.get("id").asInt();
+        return new JwtPrincipal(
+                claims.get("id").asInt(),
+                claims.get("name").asString(),
+                claims.get("authorities").asList(String.class),
+                jwt.getId(),
+                jwt.getExpiresAt().getTime(),
+                Optional.ofNullable(jwt.getClaim("ep").asLong()).orElse(0L));
     }
 
     /**
@@ -177,7 +316,7 @@ public class JwtUtils {
      */
     private boolean frequencyCheck(int userId) {
         String key = Const.JWT_FREQUENCY + userId;
-        return flowUtils.limitOnceUpgradeCheck(key, limit_frequency, limit_base, limit_upgrade);
+        return flowUtils.limitOnceUpgradeCheck(limit_algorithm, key, limit_frequency, limit_base, limit_upgrade);
     }
 
     /**
@@ -193,28 +332,33 @@ public class JwtUtils {
     }
 
     /**
-     * 将Token列入Redis黑名单中
+     * 将Token列入黑名单中，并通知其他节点
      *
      * @param uuid 令牌ID
      * @param time 过期时间
      * @return 是否操作成功
      */
     private boolean deleteToken(String uuid, Date time) {
-        if (this.isInvalidToken(uuid))
-            return false;
-        Date now = new Date();
-        long expire = Math.max(time.getTime() - now.getTime(), 0);
-        redisTemplate.opsForValue().set(Const.JWT_BLACK_LIST + uuid, "", expire, TimeUnit.MILLISECONDS);
-        return true;
+        return blacklist.revoke(uuid, time);
+    }
+
+    /**
+     * 验证令牌是否已被吊销，包括单个令牌被拉黑以及用户纪元被提升两种情况
+     *
+     * @param principal 令牌中的用户身份
+     * @return 是否已被吊销
+     */
+    private boolean isRevoked(JwtPrincipal principal) {
+        return principal.epoch() < epochs.current(principal.id()) || this.isInvalidToken(principal.jti());
     }
 
     /**
-     * 验证Token是否被列入Redis黑名单
+     * 验证Token是否被列入黑名单，绝大多数令牌只需查询本地布隆过滤器
      *
      * @param uuid 令牌ID
      * @return 是否操作成功
      */
     private boolean isInvalidToken(String uuid) {
-        return Boolean.TRUE.equals(redisTemplate.hasKey(Const.JWT_BLACK_LIST + uuid));
+        return blacklist.isRevoked(uuid);
     }
 }
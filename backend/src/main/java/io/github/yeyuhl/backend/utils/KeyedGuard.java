@@ -0,0 +1,47 @@
+package io.github.yeyuhl.backend.utils;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * 按键互斥的并发工具，用于替代synchronized(key.intern())
+ * 每个键的占用状态通过CAS写入并发集合，执行结束后立即移除，集合大小不会超过同时执行的线程数，
+ * 同一个键已被占用时不会排队等待，而是直接执行调用方给出的快速失败逻辑
+ *
+ * @author yeyuhl
+ * @since 2023/10/28
+ */
+public class KeyedGuard {
+    /**
+     * 当前正在执行的键
+     */
+    private final Set<String> running = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 以键互斥的方式执行操作
+     *
+     * @param key       键
+     * @param action    获得键后执行的操作
+     * @param contended 键已被其他线程占用时的返回值
+     * @param <T>       返回值类型
+     * @return 操作结果
+     */
+    public <T> T tryExecute(String key, Supplier<T> action, Supplier<T> contended) {
+        if (!running.add(key)) {
+            return contended.get();
+        }
+        try {
+            return action.get();
+        } finally {
+            running.remove(key);
+        }
+    }
+
+    /**
+     * @return 当前被占用的键数量
+     */
+    public int size() {
+        return running.size();
+    }
+}
@@ -0,0 +1,84 @@
+package io.github.yeyuhl.backend.utils;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.core.env.Environment;
+import org.springframework.http.server.PathContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 响应内容截取策略
+ * 默认策略配置在spring.web.log.capture下，spring.web.log.capture.routes中可以按路径单独配置采样率与截取上限，
+ * 按配置顺序匹配，第一条匹配的规则生效，错误响应不受采样率限制，总是会被截取
+ *
+ * @author yeyuhl
+ * @since 2023/11/05
+ */
+@Component
+public class LogCapturePolicies {
+    @Autowired
+    Environment environment;
+
+    private Policy defaults;
+    private List<Policy> routes;
+
+    @PostConstruct
+    public void init() {
+        Binder binder = Binder.get(environment);
+        Rule rule = binder.bind("spring.web.log.capture", Rule.class)
+                .orElseGet(() -> new Rule(null, 0.01, 2048));
+        this.defaults = new Policy(null, rule.rate(), rule.maxBytes());
+        this.routes = binder.bind("spring.web.log.capture.routes", Bindable.listOf(Rule.class))
+                .orElse(List.of())
+                .stream()
+                .map(r -> new Policy(PathPatternParser.defaultInstance.parse(r.pattern()), r.rate(), r.maxBytes()))
+                .toList();
+    }
+
+    /**
+     * 查找请求路径对应的截取策略
+     *
+     * @param path 请求路径
+     * @return 截取策略，没有匹配的规则时返回默认策略
+     */
+    public Policy match(String path) {
+        if (routes.isEmpty()) return defaults;
+        PathContainer container = PathContainer.parsePath(path);
+        for (Policy policy : routes) {
+            if (policy.pattern().matches(container)) return policy;
+        }
+        return defaults;
+    }
+
+    /**
+     * 编译后的截取策略
+     *
+     * @param pattern  路径模式，默认策略为null
+     * @param rate     采样率，取值0到1
+     * @param maxBytes 最多截取的字节数，为0时不截取
+     */
+    public record Policy(PathPattern pattern, double rate, int maxBytes) {
+        /**
+         * @return 当前请求是否被采样
+         */
+        public boolean sample() {
+            return rate >= 1 || (rate > 0 && ThreadLocalRandom.current().nextDouble() < rate);
+        }
+    }
+
+    /**
+     * 配置文件中的截取规则
+     */
+    public record Rule(String pattern,
+                       @DefaultValue("0.01") double rate,
+                       @DefaultValue("2048") int maxBytes) {
+    }
+}
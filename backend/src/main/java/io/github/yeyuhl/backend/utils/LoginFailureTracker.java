@@ -0,0 +1,274 @@
+package io.github.yeyuhl.backend.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 登录失败计数器
+ * 按账户与IP地址的组合、IP地址分别统计一段时间内的登录失败次数，超过阈值后锁定，锁定时间随失败次数指数增长，
+ * 锁定期间的登录请求在查询数据库与BCrypt校验之前就被拒绝
+ * 计数在本地与Redis中各保存一份，本地数据用于快速拒绝以及Redis不可用时的降级，Redis用于在节点之间共享
+ * 账户与地址组合的计数用于锁定，攻击者只能锁定自己地址上的登录，无法让账户在其他地址上无法登录，
+ * 分散在多个地址上的猜测由账户自身的计数限制：超过较高的软阈值后，该账户的每次登录都需要等待一段逐次翻倍的延迟，
+ * 延迟上限很短，即使被他人触发，真正的用户也只需稍等片刻
+ * 账户只按用户提交的用户名或邮箱的摘要计数，不查询账户是否存在，因此存在与不存在的账户的处理过程完全相同，不会泄露账户是否存在
+ *
+ * @author yeyuhl
+ * @since 2023/11/03
+ */
+@Component
+public class LoginFailureTracker {
+    @Autowired
+    StringRedisTemplate redisTemplate;
+
+    @Autowired
+    RedisCircuitBreaker breaker;
+
+    /**
+     * 失败次数的统计周期，以秒为单位
+     */
+    @Value("${spring.security.login.failure.window}")
+    int window;
+
+    /**
+     * 单个账户在同一IP地址上允许的失败次数
+     */
+    @Value("${spring.security.login.failure.account-threshold}")
+    int accountThreshold;
+
+    /**
+     * 单个账户在所有地址上累计失败达到该次数后，开始延迟该账户的登录
+     */
+    @Value("${spring.security.login.failure.account-soft-threshold}")
+    int accountSoftThreshold;
+
+    /**
+     * 首次延迟的时间，以秒为单位，之后每多失败一次翻倍
+     */
+    @Value("${spring.security.login.failure.base-delay}")
+    int baseDelay;
+
+    /**
+     * 最长延迟时间，以秒为单位
+     */
+    @Value("${spring.security.login.failure.max-delay}")
+    int maxDelay;
+
+    /**
+     * 单个IP地址允许的失败次数
+     */
+    @Value("${spring.security.login.failure.ip-threshold}")
+    int ipThreshold;
+
+    /**
+     * 首次锁定的时间，以秒为单位，之后每多失败一次翻倍
+     */
+    @Value("${spring.security.login.failure.base-lock}")
+    int baseLock;
+
+    /**
+     * 最长锁定时间，以秒为单位
+     */
+    @Value("${spring.security.login.failure.max-lock}")
+    int maxLock;
+
+    /**
+     * 本地最多保存的计数数量
+     */
+    @Value("${spring.security.login.failure.size}")
+    long size;
+
+    /**
+     * 同时检查账户与地址组合、IP、账户的锁定，返回各自剩余的锁定时间，以毫秒为单位
+     */
+    private static final DefaultRedisScript<List> CHECK_SCRIPT = new DefaultRedisScript<>("""
+            local result = {}
+            for i = 1, #KEYS do result[i] = redis.call('PTTL', KEYS[i]) end
+            return result
+            """, List.class);
+
+    /**
+     * 同时记录账户与地址组合、IP、账户的失败，返回各自的锁定时间，以秒为单位
+     * KEYS：每组计数键与锁定键
+     * ARGV：统计周期，之后每组依次为阈值、首次锁定时间、最长锁定时间
+     */
+    private static final DefaultRedisScript<List> FAILURE_SCRIPT = new DefaultRedisScript<>("""
+            local function fail(counter, lock, threshold, base, max)
+                local count = redis.call('INCR', counter)
+                if count == 1 then redis.call('EXPIRE', counter, ARGV[1]) end
+                if count < threshold then return 0 end
+                local seconds = math.floor(math.min(base * 2 ^ math.min(count - threshold, 20), max))
+                if seconds > 0 then redis.call('SET', lock, '', 'EX', seconds) end
+                return seconds
+            end
+            local result = {}
+            for i = 1, #KEYS / 2 do
+                local arg = 2 + (i - 1) * 3
+                result[i] = fail(KEYS[2 * i - 1], KEYS[2 * i], tonumber(ARGV[arg]), tonumber(ARGV[arg + 1]), tonumber(ARGV[arg + 2]))
+            end
+            return result
+            """, List.class);
+
+    /**
+     * 计数键 -> 本地失败记录
+     */
+    private Cache<String, Failure> failures;
+
+    @PostConstruct
+    public void init() {
+        this.failures = Caffeine.newBuilder()
+                .maximumSize(size)
+                .expireAfterAccess(Math.max(window, maxLock), TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * 获取登录请求的剩余锁定时间
+     *
+     * @param username 用户提交的用户名或邮箱
+     * @param address  客户端IP地址
+     * @return 剩余锁定时间，以秒为单位，未锁定时为0
+     */
+    public long lockRemaining(String username, String address) {
+        List<String> keys = this.keys(username, address);
+        long now = System.currentTimeMillis();
+        long local = 0;
+        for (String key : keys) {
+            local = Math.max(local, this.localLockedUntil(key) - now);
+        }
+        if (local > 0) return TimeUnit.MILLISECONDS.toSeconds(local) + 1;
+        List<?> remote = breaker.execute(() -> redisTemplate.execute(CHECK_SCRIPT,
+                keys.stream().map(key -> Const.LOGIN_LOCK + key).toList()), () -> null);
+        if (remote == null || remote.size() < keys.size()) return 0;
+        long remaining = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            long value = ((Number) remote.get(i)).longValue();
+            // 其他节点上产生的锁定，同步到本地，锁定期间不再访问Redis
+            if (value > 0) this.failure(keys.get(i)).lockUntil(now + value);
+            remaining = Math.max(remaining, value);
+        }
+        return remaining > 0 ? TimeUnit.MILLISECONDS.toSeconds(remaining) + 1 : 0;
+    }
+
+    /**
+     * 记录一次登录失败
+     *
+     * @param username 用户提交的用户名或邮箱
+     * @param address  客户端IP地址
+     */
+    public void recordFailure(String username, String address) {
+        List<String> keys = this.keys(username, address);
+        // 与keys的顺序一致：账户与地址组合、IP、账户
+        int[][] limits = {
+                {accountThreshold, baseLock, maxLock},
+                {ipThreshold, baseLock, maxLock},
+                {accountSoftThreshold, baseDelay, maxDelay}
+        };
+        long now = System.currentTimeMillis();
+        List<String> redisKeys = new ArrayList<>(keys.size() * 2);
+        List<String> args = new ArrayList<>(1 + limits.length * 3);
+        args.add(String.valueOf(window));
+        Failure[] local = new Failure[keys.size()];
+        for (int i = 0; i < keys.size(); i++) {
+            local[i] = this.failure(keys.get(i));
+            // 先按本地计数锁定，Redis不可用时仍然有效
+            local[i].fail(now, limits[i][0], limits[i][1], limits[i][2]);
+            redisKeys.add(Const.LOGIN_FAILURE + keys.get(i));
+            redisKeys.add(Const.LOGIN_LOCK + keys.get(i));
+            for (int limit : limits[i]) args.add(String.valueOf(limit));
+        }
+        List<?> result = breaker.execute(() -> redisTemplate.execute(FAILURE_SCRIPT, redisKeys, args.toArray()),
+                () -> null);
+        if (result == null || result.size() < keys.size()) return;
+        for (int i = 0; i < keys.size(); i++) {
+            local[i].lockUntil(now + ((Number) result.get(i)).longValue() * 1000);
+        }
+    }
+
+    /**
+     * 登录成功后清除账户在该地址上的失败计数，IP地址与账户的计数保留到周期结束，
+     * 否则攻击者可以借真正用户的登录重置账户的延迟
+     *
+     * @param username 用户提交的用户名或邮箱
+     * @param address  客户端IP地址
+     */
+    public void recordSuccess(String username, String address) {
+        String account = "account:" + digest(normalize(username) + "\n" + address);
+        failures.invalidate(account);
+        breaker.execute(() -> redisTemplate.delete(Const.LOGIN_FAILURE + account), () -> false);
+    }
+
+    private long localLockedUntil(String key) {
+        Failure failure = failures.getIfPresent(key);
+        return failure == null ? 0 : failure.lockedUntil;
+    }
+
+    private Failure failure(String key) {
+        return failures.get(key, k -> new Failure());
+    }
+
+    /**
+     * 计算一次登录涉及的计数键，依次为账户与地址组合、IP、账户
+     * 账户使用摘要而不是原始用户名，键长度固定，Redis中也不会保存用户提交的邮箱
+     *
+     * @param username 用户提交的用户名或邮箱
+     * @param address  客户端IP地址
+     * @return 计数键
+     */
+    private List<String> keys(String username, String address) {
+        String normalized = normalize(username);
+        return List.of("account:" + digest(normalized + "\n" + address), "ip:" + address, "user:" + digest(normalized));
+    }
+
+    private static String normalize(String username) {
+        return username == null ? "" : username.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static String digest(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest).substring(0, 22);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 本地失败记录
+     */
+    private final class Failure {
+        private int count;
+        private long windowStart;
+        private volatile long lockedUntil;
+
+        synchronized void fail(long now, int threshold, int base, int max) {
+            if (now - windowStart > window * 1000L) {
+                windowStart = now;
+                count = 0;
+            }
+            if (++count >= threshold) {
+                long seconds = Math.min((long) base << Math.min(count - threshold, 20), max);
+                this.lockUntil(now + seconds * 1000);
+            }
+        }
+
+        synchronized void lockUntil(long until) {
+            if (until > lockedUntil) lockedUntil = until;
+        }
+    }
+}
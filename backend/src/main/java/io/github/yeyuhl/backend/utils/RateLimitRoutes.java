@@ -0,0 +1,161 @@
+package io.github.yeyuhl.backend.utils;
+
+import io.github.yeyuhl.backend.annotation.RateLimit;
+import io.github.yeyuhl.backend.utils.limit.LimitAlgorithm;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.http.server.PathContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.mvc.method.RequestMappingInfo;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+
+import java.util.*;
+
+/**
+ * 接口限流路由表
+ * 启动时收集Controller方法上的@RateLimit注解，以及配置文件中spring.web.flow.routes下的路由规则，
+ * 编译为一张只读的路由表：不含通配符的路径放入哈希表直接查找，只有含通配符的路径才需要逐个匹配
+ *
+ * @author yeyuhl
+ * @since 2023/10/30
+ */
+@Slf4j
+@Component
+public class RateLimitRoutes implements ApplicationListener<ContextRefreshedEvent> {
+    /**
+     * 路由表，在容器刷新完成后整体替换
+     */
+    private volatile Table table = new Table(Map.of(), List.of());
+
+    /**
+     * 查找请求对应的限流策略
+     *
+     * @param path   请求路径
+     * @param method 请求方法
+     * @return 匹配的限流策略，没有时返回空列表
+     */
+    public List<Route> match(String path, String method) {
+        Table table = this.table;
+        List<Route> result = null;
+        Route[] exact = table.exact().get(path);
+        if (exact != null) {
+            for (Route route : exact) {
+                if (route.accept(method)) result = add(result, route);
+            }
+        }
+        if (!table.patterns().isEmpty()) {
+            PathContainer container = PathContainer.parsePath(path);
+            for (Route route : table.patterns()) {
+                if (route.accept(method) && route.pattern().matches(container)) result = add(result, route);
+            }
+        }
+        return result == null ? List.of() : result;
+    }
+
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        List<Route> routes = new ArrayList<>();
+        // 配置文件中的规则，主要用于登录这类不经过Controller的接口
+        Binder.get(event.getApplicationContext().getEnvironment())
+                .bind("spring.web.flow.routes", Bindable.listOf(Rule.class))
+                .orElse(List.of())
+                .forEach(rule -> routes.add(this.compile(rule.pattern(), rule.methods(), rule.key(),
+                        rule.limit(), rule.period(), rule.block(), rule.algorithm())));
+        // Controller方法上的注解
+        RequestMappingHandlerMapping mapping = event.getApplicationContext()
+                .getBean("requestMappingHandlerMapping", RequestMappingHandlerMapping.class);
+        mapping.getHandlerMethods().forEach((info, handler) -> this.collect(info, handler, routes));
+        Map<String, List<Route>> exact = new HashMap<>();
+        List<Route> patterns = new ArrayList<>();
+        for (Route route : routes) {
+            if (route.pattern().hasPatternSyntax()) {
+                patterns.add(route);
+            } else {
+                exact.computeIfAbsent(route.pattern().getPatternString(), key -> new ArrayList<>()).add(route);
+            }
+        }
+        Map<String, Route[]> compiled = new HashMap<>();
+        exact.forEach((path, list) -> compiled.put(path, list.toArray(new Route[0])));
+        this.table = new Table(Map.copyOf(compiled), List.copyOf(patterns));
+        log.info("接口限流路由表已加载，共 {} 条规则", routes.size());
+    }
+
+    /**
+     * 收集单个Controller方法上的限流注解
+     *
+     * @param info    请求映射信息
+     * @param handler 处理方法
+     * @param routes  路由列表
+     */
+    private void collect(RequestMappingInfo info, HandlerMethod handler, List<Route> routes) {
+        RateLimit limit = handler.getMethodAnnotation(RateLimit.class);
+        if (limit == null) return;
+        Set<String> methods = new HashSet<>();
+        for (RequestMethod method : info.getMethodsCondition().getMethods()) {
+            methods.add(method.name());
+        }
+        for (String pattern : info.getPatternValues()) {
+            routes.add(this.compile(pattern, methods, limit.key(), limit.limit(), limit.period(),
+                    limit.block(), limit.algorithm()));
+        }
+    }
+
+    /**
+     * 编译单条路由
+     */
+    private Route compile(String pattern, Set<String> methods, RateLimit.Key key,
+                          int limit, int period, int block, LimitAlgorithm algorithm) {
+        // 路由标识用于拼接Redis键，同一路径上的不同策略互不干扰
+        String id = pattern + ":" + key + ":" + limit + "/" + period;
+        return new Route(id, PathPatternParser.defaultInstance.parse(pattern), Set.copyOf(methods), key,
+                limit, period, block, algorithm);
+    }
+
+    private static List<Route> add(List<Route> list, Route route) {
+        if (list == null) list = new ArrayList<>(2);
+        list.add(route);
+        return list;
+    }
+
+    /**
+     * 编译后的限流路由
+     *
+     * @param id        路由标识
+     * @param pattern   路径模式
+     * @param methods   生效的请求方法，为空时对所有方法生效
+     * @param key       限流对象
+     * @param limit     周期内允许的请求数
+     * @param period    时间周期
+     * @param block     封禁时间
+     * @param algorithm 限流算法
+     */
+    public record Route(String id, PathPattern pattern, Set<String> methods, RateLimit.Key key,
+                        int limit, int period, int block, LimitAlgorithm algorithm) {
+        boolean accept(String method) {
+            return methods.isEmpty() || methods.contains(method);
+        }
+    }
+
+    /**
+     * 配置文件中的路由规则
+     */
+    public record Rule(String pattern,
+                       @DefaultValue Set<String> methods,
+                       @DefaultValue("IP") RateLimit.Key key,
+                       int limit,
+                       int period,
+                       @DefaultValue("0") int block,
+                       @DefaultValue("SLIDING_WINDOW") LimitAlgorithm algorithm) {
+    }
+
+    private record Table(Map<String, Route[]> exact, List<Route> patterns) {
+    }
+}
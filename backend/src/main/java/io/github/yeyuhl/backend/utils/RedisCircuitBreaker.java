@@ -0,0 +1,218 @@
+package io.github.yeyuhl.backend.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 请求路径上Redis调用的熔断器
+ * 连续失败（包括超时与超过慢调用阈值的调用）达到阈值后熔断，熔断期间直接执行调用方给出的降级逻辑，不再占用Tomcat线程等待Redis，
+ * 熔断时间结束后只放行一个探测请求，探测成功则恢复，失败则继续熔断
+ * 单次调用的超时由spring.data.redis.timeout控制
+ *
+ * @author yeyuhl
+ * @since 2023/11/01
+ */
+@Slf4j
+@Component
+public class RedisCircuitBreaker {
+    /**
+     * 熔断器状态
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * 本地数据无法给出结论时的处理策略
+     * FAIL_OPEN：按未吊销处理，优先保证可用性
+     * FAIL_CLOSED：按已吊销处理，优先保证安全性
+     */
+    public enum Policy {
+        FAIL_OPEN, FAIL_CLOSED
+    }
+
+    /**
+     * 连续失败多少次后熔断
+     */
+    @Value("${spring.web.breaker.failure-threshold}")
+    int failureThreshold;
+
+    /**
+     * 慢调用阈值，以毫秒为单位，超过该时间的调用即使成功也记为一次失败
+     */
+    @Value("${spring.web.breaker.slow-call}")
+    long slowCall;
+
+    /**
+     * 熔断持续时间，以毫秒为单位
+     */
+    @Value("${spring.web.breaker.open-duration}")
+    long openDuration;
+
+    /**
+     * 降级策略
+     */
+    @Value("${spring.web.breaker.policy}")
+    Policy policy;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicBoolean probing = new AtomicBoolean();
+    private volatile long openedAt;
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder opened = new LongAdder();
+
+    /**
+     * 熔断器从熔断中恢复时通知的回调
+     */
+    private final List<Runnable> recoveryListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * 在熔断器保护下执行Redis调用
+     *
+     * @param call     Redis调用
+     * @param fallback 熔断中或调用失败时的降级逻辑
+     * @param <T>      返回值类型
+     * @return 调用结果或降级结果
+     */
+    public <T> T execute(Supplier<T> call, Supplier<T> fallback) {
+        boolean probe;
+        State current = state.get();
+        if (current == State.CLOSED) {
+            probe = false;
+        } else {
+            if (current == State.OPEN && System.currentTimeMillis() - openedAt < openDuration) {
+                rejected.increment();
+                return fallback.get();
+            }
+            state.compareAndSet(State.OPEN, State.HALF_OPEN);
+            // 半开状态只允许一个探测请求，其余请求继续降级
+            if (!probing.compareAndSet(false, true)) {
+                rejected.increment();
+                return fallback.get();
+            }
+            probe = true;
+        }
+        calls.increment();
+        long start = System.nanoTime();
+        T result;
+        try {
+            result = call.get();
+        } catch (RuntimeException e) {
+            failed.increment();
+            this.onFailure(probe);
+            log.debug("Redis调用失败，执行降级逻辑: {}", e.getMessage());
+            return fallback.get();
+        }
+        if (TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) > slowCall) {
+            failed.increment();
+            this.onFailure(probe);
+        } else {
+            this.onSuccess(probe);
+        }
+        return result;
+    }
+
+    /**
+     * 注册熔断恢复时的回调，回调在探测请求的线程上执行，不能有耗时操作
+     *
+     * @param listener 回调
+     */
+    public void addRecoveryListener(Runnable listener) {
+        recoveryListeners.add(listener);
+    }
+
+    /**
+     * @return 当前状态
+     */
+    public State state() {
+        State current = state.get();
+        if (current == State.OPEN && System.currentTimeMillis() - openedAt >= openDuration) return State.HALF_OPEN;
+        return current;
+    }
+
+    /**
+     * @return 降级策略
+     */
+    public Policy policy() {
+        return policy;
+    }
+
+    /**
+     * @return 实际发往Redis的调用次数
+     */
+    public long calls() {
+        return calls.sum();
+    }
+
+    /**
+     * @return 失败或慢调用的次数
+     */
+    public long failures() {
+        return failed.sum();
+    }
+
+    /**
+     * @return 因熔断而直接降级的调用次数
+     */
+    public long rejections() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return 熔断次数
+     */
+    public long openCount() {
+        return opened.sum();
+    }
+
+    private void onSuccess(boolean probe) {
+        failures.set(0);
+        if (probe) {
+            state.set(State.CLOSED);
+            probing.set(false);
+            log.info("Redis已恢复，熔断器关闭");
+            for (Runnable listener : recoveryListeners) {
+                try {
+                    listener.run();
+                } catch (RuntimeException e) {
+                    log.warn("熔断恢复回调执行失败", e);
+                }
+            }
+        }
+    }
+
+    private void onFailure(boolean probe) {
+        if (probe) {
+            this.open();
+            probing.set(false);
+        } else if (failures.incrementAndGet() >= failureThreshold && state.get() == State.CLOSED) {
+            // 先写入熔断时间再切换状态，其他线程看到OPEN时熔断时间一定是最新的
+            openedAt = System.currentTimeMillis();
+            if (!state.compareAndSet(State.CLOSED, State.OPEN)) return;
+            opened.increment();
+            log.warn("Redis连续 {} 次调用失败或超时，熔断 {} 毫秒", failureThreshold, openDuration);
+        }
+    }
+
+    private void open() {
+        openedAt = System.currentTimeMillis();
+        state.set(State.OPEN);
+        opened.increment();
+        failures.set(0);
+        log.warn("Redis探测请求失败，继续熔断 {} 毫秒", openDuration);
+    }
+}
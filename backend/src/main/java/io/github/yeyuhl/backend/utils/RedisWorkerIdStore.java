@@ -0,0 +1,59 @@
+package io.github.yeyuhl.backend.utils;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于Redis的节点ID租约存储，每个节点ID对应一个带过期时间的键，值为持有者的标识
+ *
+ * @author yeyuhl
+ * @since 2023/11/09
+ */
+@Component
+public class RedisWorkerIdStore implements WorkerIdStore {
+    @Autowired
+    StringRedisTemplate redisTemplate;
+
+    /**
+     * 持有者一致时才续约
+     */
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('GET', KEYS[1]) == ARGV[1] then
+                return redis.call('EXPIRE', KEYS[1], ARGV[2])
+            end
+            return 0
+            """, Long.class);
+
+    /**
+     * 持有者一致时才删除
+     */
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('GET', KEYS[1]) == ARGV[1] then
+                return redis.call('DEL', KEYS[1])
+            end
+            return 0
+            """, Long.class);
+
+    @Override
+    public boolean tryAcquire(int nodeId, String owner, long ttlSeconds) {
+        return Boolean.TRUE.equals(redisTemplate.opsForValue()
+                .setIfAbsent(Const.SNOWFLAKE_WORKER + nodeId, owner, ttlSeconds, TimeUnit.SECONDS));
+    }
+
+    @Override
+    public boolean renew(int nodeId, String owner, long ttlSeconds) {
+        Long result = redisTemplate.execute(RENEW_SCRIPT, List.of(Const.SNOWFLAKE_WORKER + nodeId),
+                owner, String.valueOf(ttlSeconds));
+        return result != null && result == 1;
+    }
+
+    @Override
+    public void release(int nodeId, String owner) {
+        redisTemplate.execute(RELEASE_SCRIPT, List.of(Const.SNOWFLAKE_WORKER + nodeId), owner);
+    }
+}
@@ -0,0 +1,198 @@
+package io.github.yeyuhl.backend.utils;
+
+import io.github.yeyuhl.backend.entity.vo.response.AuthorizeVO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 刷新令牌工具类
+ * 访问令牌只有很短的有效期，过期后客户端使用刷新令牌换取新的访问令牌，整个过程只访问Redis，不会查询数据库或进行BCrypt校验
+ * 同一次登录签发的刷新令牌属于同一个家族，家族在Redis中只保存当前有效的令牌，每次刷新都会轮换，
+ * 如果一个已经被轮换掉的刷新令牌再次出现，说明令牌可能已泄露，此时吊销整个家族以及该用户的全部访问令牌，
+ * 例外是刚被轮换掉的上一个令牌在宽限期内再次出现，这通常是多个标签页同时刷新，直接返回当前的令牌而不视为重用
+ *
+ * @author yeyuhl
+ * @since 2023/10/25
+ */
+@Slf4j
+@Component
+public class RefreshTokenUtils {
+    /**
+     * 刷新令牌的有效期，以小时为单位，从登录时开始计算，轮换不会延长
+     */
+    @Value("${spring.security.jwt.refresh.expire}")
+    private int expire;
+
+    /**
+     * 上一个刷新令牌被轮换掉之后仍可使用的宽限期，以秒为单位
+     */
+    @Value("${spring.security.jwt.refresh.grace}")
+    private int grace;
+
+    @Autowired
+    StringRedisTemplate redisTemplate;
+
+    @Autowired
+    JwtUtils jwtUtils;
+
+    @Autowired
+    RevocationEpochs epochs;
+
+    @Autowired
+    RedisCircuitBreaker breaker;
+
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * 创建刷新令牌家族并设置过期时间，一次往返完成
+     */
+    private static final DefaultRedisScript<Long> CREATE_SCRIPT = new DefaultRedisScript<>("""
+            redis.call('HSET', KEYS[1], 'current', ARGV[1], 'id', ARGV[2], 'name', ARGV[3], 'role', ARGV[4], 'epoch', ARGV[5])
+            redis.call('EXPIRE', KEYS[1], ARGV[6])
+            return 1
+            """, Long.class);
+
+    /**
+     * 原子地校验并轮换刷新令牌，ARGV依次为：提交的令牌、新令牌、当前毫秒时间戳、宽限期毫秒数
+     * 返回 {0} 表示家族不存在，{-1, id} 表示检测到重用，{1, id, name, role, epoch, secret} 表示轮换成功，
+     * 宽限期内提交上一个令牌时不再轮换，secret为当前的令牌
+     */
+    private static final DefaultRedisScript<List> ROTATE_SCRIPT = new DefaultRedisScript<>("""
+            local data = redis.call('HMGET', KEYS[1], 'current', 'id', 'name', 'role', 'epoch', 'previous', 'rotated')
+            if not data[1] then return {0} end
+            if data[1] == ARGV[1] then
+                redis.call('HSET', KEYS[1], 'current', ARGV[2], 'previous', ARGV[1], 'rotated', ARGV[3])
+                return {1, data[2], data[3], data[4], data[5], ARGV[2]}
+            end
+            if data[6] == ARGV[1] and tonumber(ARGV[3]) - tonumber(data[7]) <= tonumber(ARGV[4]) then
+                return {1, data[2], data[3], data[4], data[5], data[1]}
+            end
+            redis.call('DEL', KEYS[1])
+            return {-1, data[2]}
+            """, List.class);
+
+    /**
+     * 登录成功后为用户创建新的刷新令牌家族
+     *
+     * @param userId   用户ID
+     * @param username 用户名
+     * @param role     用户角色
+     * @return 刷新令牌，Redis不可用或无法获取用户的吊销纪元时返回null，此时只使用访问令牌
+     */
+    public String createRefreshToken(int userId, String username, String role) {
+        Long epoch = epochs.forIssue(userId);
+        if (epoch == null) return null;
+        String family = UUID.randomUUID().toString().replace("-", "");
+        String secret = this.randomSecret();
+        String key = Const.JWT_REFRESH + family;
+        Long created = breaker.execute(() -> redisTemplate.execute(CREATE_SCRIPT, List.of(key), secret,
+                String.valueOf(userId), username, role, String.valueOf(epoch),
+                String.valueOf(TimeUnit.HOURS.toSeconds(expire))), () -> null);
+        return created == null ? null : family + "." + secret;
+    }
+
+    /**
+     * 使用刷新令牌换取新的访问令牌与刷新令牌
+     *
+     * @param refreshToken 刷新令牌
+     * @return 新的令牌信息，刷新令牌无效、已过期或被重用时返回null
+     */
+    public AuthorizeVO refresh(String refreshToken) {
+        int dot = refreshToken == null ? -1 : refreshToken.indexOf('.');
+        if (dot <= 0) return null;
+        String family = refreshToken.substring(0, dot);
+        String secret = this.randomSecret();
+        String key = Const.JWT_REFRESH + family;
+        List<?> result = breaker.execute(() -> redisTemplate.execute(ROTATE_SCRIPT, List.of(key),
+                refreshToken.substring(dot + 1), secret, String.valueOf(System.currentTimeMillis()),
+                String.valueOf(TimeUnit.SECONDS.toMillis(grace))), () -> null);
+        if (result == null || result.isEmpty()) return null;
+        long status = (Long) result.get(0);
+        if (status == 0) return null;
+        int userId = Integer.parseInt(result.get(1).toString());
+        if (status < 0) {
+            log.warn("检测到刷新令牌重用，已吊销用户 {} 的全部令牌", userId);
+            jwtUtils.invalidateAllJwt(userId);
+            return null;
+        }
+        // 密码重置或所有设备退出之后，旧的刷新令牌家族也一并失效
+        if (Long.parseLong(result.get(4).toString()) < epochs.current(userId)) {
+            this.delete(key);
+            return null;
+        }
+        String username = result.get(2).toString();
+        String role = result.get(3).toString();
+        String jwt = jwtUtils.signJwt(userId, username, List.of("ROLE_" + role));
+        if (jwt == null) return null;
+        AuthorizeVO vo = new AuthorizeVO();
+        vo.setUsername(username);
+        vo.setRole(role);
+        vo.setToken(jwt);
+        vo.setExpire(jwtUtils.expireTime());
+        vo.setRefreshToken(family + "." + result.get(5));
+        vo.setRefreshExpire(this.refreshExpireTime(key));
+        return vo;
+    }
+
+    /**
+     * 吊销刷新令牌所在的整个家族，用于退出登录
+     *
+     * @param refreshToken 刷新令牌
+     */
+    public void revoke(String refreshToken) {
+        int dot = refreshToken == null ? -1 : refreshToken.indexOf('.');
+        if (dot <= 0) return;
+        this.delete(Const.JWT_REFRESH + refreshToken.substring(0, dot));
+    }
+
+    /**
+     * 计算新创建的刷新令牌的过期时间
+     *
+     * @return 过期时间
+     */
+    public Date expireTime() {
+        return new Date(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(expire));
+    }
+
+    /**
+     * 根据家族剩余的存活时间计算刷新令牌的过期时间
+     *
+     * @param key 家族键
+     * @return 过期时间
+     */
+    private Date refreshExpireTime(String key) {
+        Long ttl = breaker.execute(() -> redisTemplate.getExpire(key, TimeUnit.MILLISECONDS), () -> null);
+        return ttl == null || ttl < 0 ? this.expireTime() : new Date(System.currentTimeMillis() + ttl);
+    }
+
+    /**
+     * 删除刷新令牌家族，Redis不可用时家族会在过期后自然失效
+     *
+     * @param key 家族键
+     */
+    private void delete(String key) {
+        breaker.execute(() -> redisTemplate.delete(key), () -> false);
+    }
+
+    /**
+     * 生成256位随机串
+     *
+     * @return Base64URL编码的随机串
+     */
+    private String randomSecret() {
+        byte[] bytes = new byte[32];
+        random.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
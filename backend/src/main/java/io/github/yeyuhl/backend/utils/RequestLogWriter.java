@@ -0,0 +1,231 @@
+package io.github.yeyuhl.backend.utils;
+
+import com.alibaba.fastjson2.JSONObject;
+import io.github.yeyuhl.backend.entity.dto.RequestLog;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Pattern;
+
+/**
+ * 异步批量请求日志
+ * 请求线程只把采集到的原始数据放入环形队列，由后台日志线程成批取出、格式化并写入日志，
+ * 队列写满时按配置的策略处理：
+ * - DROP：直接丢弃新的日志
+ * - SAMPLE：队列占用超过一半后按比例采样，仍然写不进去时丢弃
+ * - BLOCK：请求线程等待队列腾出空间，保证不丢日志
+ * 密码、令牌等敏感的请求参数以及响应中的令牌字段在写入前会被替换为******
+ *
+ * @author yeyuhl
+ * @since 2023/11/04
+ */
+@Slf4j
+@Component
+public class RequestLogWriter {
+    /**
+     * 队列写满时的处理策略
+     */
+    public enum Overflow {
+        DROP, SAMPLE, BLOCK
+    }
+
+    /**
+     * 队列容量
+     */
+    @Value("${spring.web.log.capacity}")
+    int capacity;
+
+    /**
+     * 每批最多处理的日志数
+     */
+    @Value("${spring.web.log.batch}")
+    int batch;
+
+    /**
+     * 队列为空时日志线程的休眠时间，以毫秒为单位
+     */
+    @Value("${spring.web.log.flush-interval}")
+    long flushInterval;
+
+    /**
+     * 队列写满时的处理策略
+     */
+    @Value("${spring.web.log.overflow}")
+    Overflow overflow;
+
+    /**
+     * SAMPLE策略下，每多少条日志保留一条
+     */
+    @Value("${spring.web.log.sample-rate}")
+    int sampleRate;
+
+    /**
+     * 不写入日志的请求参数
+     */
+    private static final Set<String> SENSITIVE_PARAMS = Set.of("password", "token", "refreshToken");
+
+    /**
+     * 响应内容中的令牌字段
+     */
+    private static final Pattern SENSITIVE_FIELDS = Pattern.compile("\"(token|refreshToken)\"\\s*:\\s*\"[^\"]*\"?");
+
+    private RingBuffer<RequestLog> buffer;
+    private Thread worker;
+    private volatile boolean running;
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder sampledOut = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    @PostConstruct
+    public void start() {
+        this.buffer = new RingBuffer<>(capacity);
+        this.running = true;
+        this.worker = new Thread(this::drainLoop, "request-log-writer");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(worker);
+        worker.join(TimeUnit.SECONDS.toMillis(5));
+    }
+
+    /**
+     * 提交一条请求日志，请求线程上只有一次入队操作
+     *
+     * @param entry 请求日志
+     */
+    public void submit(RequestLog entry) {
+        if (overflow == Overflow.SAMPLE && buffer.size() * 2 >= buffer.capacity()
+                && sequence.incrementAndGet() % sampleRate != 0) {
+            sampledOut.increment();
+            return;
+        }
+        if (buffer.offer(entry)) return;
+        if (overflow == Overflow.BLOCK) {
+            while (!buffer.offer(entry)) {
+                // 写入线程已经停止时不会再腾出空间，改为丢弃
+                if (!running) {
+                    dropped.increment();
+                    return;
+                }
+                LockSupport.unpark(worker);
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+            }
+        } else {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * @return 队列中等待写入的日志数
+     */
+    public int pending() {
+        return buffer.size();
+    }
+
+    /**
+     * @return 因队列已满被丢弃的日志数
+     */
+    public long droppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return 因采样被跳过的日志数
+     */
+    public long sampledOutCount() {
+        return sampledOut.sum();
+    }
+
+    /**
+     * @return 已写入的日志数
+     */
+    public long writtenCount() {
+        return written.sum();
+    }
+
+    /**
+     * @return 写入时抛出异常的日志数
+     */
+    public long failedCount() {
+        return failed.sum();
+    }
+
+    private void drainLoop() {
+        while (running) {
+            if (this.drain() == 0) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(flushInterval));
+            }
+        }
+        // 关闭前把剩余的日志写完
+        int remaining;
+        do {
+            remaining = this.drain();
+        } while (remaining > 0);
+    }
+
+    /**
+     * 取出一批日志并写入
+     *
+     * @return 本批取出的数量，包括写入失败的日志
+     */
+    private int drain() {
+        int count = 0;
+        int success = 0;
+        RequestLog entry;
+        while (count < batch && (entry = buffer.poll()) != null) {
+            try {
+                this.write(entry);
+                success++;
+            } catch (RuntimeException e) {
+                failed.increment();
+                log.warn("请求日志写入失败: {}", e.getMessage());
+            }
+            count++;
+        }
+        written.add(success);
+        return count;
+    }
+
+    /**
+     * 格式化并输出一次请求的开始与结束日志
+     *
+     * @param entry 请求日志
+     */
+    private void write(RequestLog entry) {
+        JSONObject params = new JSONObject();
+        entry.params().forEach((k, v) -> params.put(k, SENSITIVE_PARAMS.contains(k) ? "******" : v.length > 0 ? v[0] : null));
+        if (entry.userId() != null && entry.principal() instanceof UserDetails user) {
+            log.info("[{}] 请求URL: \"{}\" ({}) | 远程IP地址: {} │ 身份: {} (UID: {}) | 角色: {} | 请求参数列表: {}",
+                    entry.reqId(), entry.path(), entry.method(), entry.address(),
+                    user.getUsername(), entry.userId(), user.getAuthorities(), params);
+        } else {
+            log.info("[{}] 请求URL: \"{}\" ({}) | 远程IP地址: {} │ 身份: 未验证 | 请求参数列表: {}",
+                    entry.reqId(), entry.path(), entry.method(), entry.address(), params);
+        }
+        String content;
+        if (entry.body() == null) {
+            content = entry.status() >= 400 ? entry.status() + " 错误" : entry.status() + " (未采样)";
+        } else {
+            content = SENSITIVE_FIELDS.matcher(new String(entry.body(), StandardCharsets.UTF_8)).replaceAll("\"$1\":\"******\"");
+            if (entry.truncated()) content += "...(已截断)";
+        }
+        log.info("[{}] 请求处理耗时: {}ms | 响应结果: {}", entry.reqId(), entry.elapsed(), content);
+    }
+}
@@ -0,0 +1,164 @@
+package io.github.yeyuhl.backend.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 用户级别的令牌吊销纪元
+ * 每个用户在Redis中只保存一个递增的纪元值，令牌签发时写入当时的纪元，
+ * 纪元被提升后，所有早于当前纪元签发的令牌都会失效，用于“所有设备退出登录”或重置密码后吊销全部令牌，
+ * 纪元在本地缓存，常规情况下校验不需要额外访问Redis，提升纪元时通过Redis频道通知其他节点
+ *
+ * @author yeyuhl
+ * @since 2023/10/24
+ */
+@Component
+public class RevocationEpochs implements MessageListener {
+    @Autowired
+    StringRedisTemplate redisTemplate;
+
+    @Autowired
+    RedisCircuitBreaker breaker;
+
+    /**
+     * 本地缓存的最大用户数
+     */
+    @Value("${spring.security.jwt.epoch.size}")
+    private long size;
+
+    /**
+     * 本地缓存的存活时间，以秒为单位，也是频道通知丢失时的最大延迟
+     */
+    @Value("${spring.security.jwt.epoch.ttl}")
+    private int ttl;
+
+    /**
+     * 用户ID -> 当前纪元
+     */
+    private Cache<Integer, Long> cache;
+
+    /**
+     * 用户ID -> 最近一次从Redis读到的纪元，不会过期，Redis不可用时作为快照使用
+     */
+    private Cache<Integer, Long> snapshot;
+
+    /**
+     * Redis不可用时未能提升纪元的用户，熔断器恢复后重试
+     */
+    private final Set<Integer> pending = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    public void init() {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(size)
+                .expireAfterWrite(ttl, TimeUnit.SECONDS)
+                .build();
+        this.snapshot = Caffeine.newBuilder()
+                .maximumSize(size)
+                .build();
+        breaker.addRecoveryListener(this::retryPending);
+    }
+
+    /**
+     * 获取用户当前的纪元，用于校验令牌
+     *
+     * @param userId 用户ID
+     * @return 纪元，从未提升过时为0
+     */
+    public long current(int userId) {
+        Long epoch = this.load(userId);
+        if (epoch != null) return epoch;
+        // 没有快照时按降级策略处理，FAIL_CLOSED时任何令牌的纪元都小于该值，即全部视为已吊销
+        return breaker.policy() == RedisCircuitBreaker.Policy.FAIL_CLOSED ? Long.MAX_VALUE : 0L;
+    }
+
+    /**
+     * 获取签发令牌时写入的纪元，只使用从Redis读到的值，不会按降级策略取值，
+     * 否则FAIL_CLOSED时签发的令牌永远无法被吊销，FAIL_OPEN时签发的令牌在Redis恢复后立即失效
+     *
+     * @param userId 用户ID
+     * @return 纪元，Redis不可用且没有快照时返回null，此时不能签发令牌
+     */
+    public Long forIssue(int userId) {
+        return this.load(userId);
+    }
+
+    /**
+     * 提升用户的纪元，使该用户此前签发的所有令牌失效
+     *
+     * @param userId 用户ID
+     * @return 是否提升成功，Redis不可用时返回false
+     */
+    public boolean bump(int userId) {
+        Long epoch = breaker.execute(() -> {
+            Long value = redisTemplate.opsForValue().increment(Const.JWT_EPOCH + userId);
+            redisTemplate.convertAndSend(Const.JWT_EPOCH_CHANNEL, String.valueOf(userId));
+            return value;
+        }, () -> null);
+        if (epoch == null) return false;
+        cache.put(userId, epoch);
+        snapshot.put(userId, epoch);
+        return true;
+    }
+
+    /**
+     * 提升用户的纪元，Redis不可用时记录下来，熔断器恢复后重试
+     *
+     * @param userId 用户ID
+     * @return 是否已经提升成功，返回false时将在Redis恢复后提升
+     */
+    public boolean bumpOrRetry(int userId) {
+        if (this.bump(userId)) return true;
+        pending.add(userId);
+        return false;
+    }
+
+    /**
+     * 重试此前未能提升的纪元，在探测请求的线程上执行，只有熔断期间的少量用户
+     */
+    private void retryPending() {
+        for (Integer userId : pending) {
+            if (!this.bump(userId)) return;
+            pending.remove(userId);
+        }
+    }
+
+    /**
+     * 依次读取本地缓存、Redis与快照
+     *
+     * @param userId 用户ID
+     * @return 纪元，Redis不可用且没有快照时返回null
+     */
+    private Long load(int userId) {
+        // 降级时加载结果为null，Caffeine不会缓存，Redis恢复后的下一次校验会重新读取
+        Long epoch = cache.get(userId, id -> breaker.execute(() -> {
+            long value = Optional.ofNullable(redisTemplate.opsForValue().get(Const.JWT_EPOCH + id))
+                    .map(Long::parseLong)
+                    .orElse(0L);
+            snapshot.put(id, value);
+            return value;
+        }, () -> null));
+        return epoch != null ? epoch : snapshot.getIfPresent(userId);
+    }
+
+    /**
+     * 接收其他节点提升纪元的通知，丢弃本地缓存，下次校验时重新读取
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        cache.invalidate(Integer.parseInt(new String(message.getBody(), StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,92 @@
+package io.github.yeyuhl.backend.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 有界无锁环形队列，支持多个生产者与单个消费者
+ * 每个槽位带有一个序号，生产者通过CAS抢占写入位置，写入完成后发布序号，消费者根据序号判断槽位是否可读，
+ * 生产者之间只竞争一个计数器，队列满时立即返回失败，不会阻塞
+ *
+ * @param <T> 元素类型
+ * @author yeyuhl
+ * @since 2023/11/04
+ */
+public class RingBuffer<T> {
+    private final int mask;
+    private final AtomicReferenceArray<T> elements;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+
+    /**
+     * @param capacity 容量，会向上取整到2的幂
+     */
+    public RingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.mask = size - 1;
+        this.elements = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * 写入元素，可以被多个线程同时调用
+     *
+     * @param element 元素
+     * @return 是否写入成功，队列已满时返回false
+     */
+    public boolean offer(T element) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) position & mask;
+            long diff = sequences.get(index) - position;
+            if (diff == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements.lazySet(index, element);
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * 取出元素，只能由一个消费者线程调用
+     *
+     * @return 元素，队列为空时返回null
+     */
+    public T poll() {
+        long position = head;
+        int index = (int) position & mask;
+        if (sequences.get(index) != position + 1) return null;
+        T element = elements.get(index);
+        elements.lazySet(index, null);
+        // 将槽位交还给下一轮的生产者
+        sequences.lazySet(index, position + mask + 1);
+        head = position + 1;
+        return element;
+    }
+
+    /**
+     * @return 队列中元素数量的估计值
+     */
+    public int size() {
+        return (int) Math.max(0, Math.min(tail.get() - head, mask + 1));
+    }
+
+    /**
+     * @return 队列容量
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+}
@@ -1,13 +1,39 @@
 package io.github.yeyuhl.backend.utils;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
 /**
  * 雪花算法ID生成器
+ * 时间戳与序列号合并保存在一个AtomicLong中，生成ID只需要一次CAS，不再使用synchronized，
+ * 同一毫秒内序列号用完时直接进位到下一毫秒（借用未来的时间戳），不会自旋等待时钟前进
+ * 数据中心ID与机器ID合称节点ID，启动时通过WorkerIdStore租用一个空闲的节点ID并定期续约，多个节点生成的ID不会重复，
+ * 配置文件中的节点ID保留给未租到节点ID时使用，不会被租出，用nodeOf取出节点ID后与fallbackNode比较即可识别这些ID，
+ * 它们在多个未租到节点ID的实例之间可能重复
+ * 存储不可用时其他节点同样无法租用，因此续约失败时继续使用已租用的节点ID，只有租约确认被抢占时才退回保留的节点ID，
+ * 续约在独立的线程上执行，不受其他定时任务的影响
+ * 系统时钟回拨时不再直接抛出异常：
+ * - 领先系统时钟不超过max-borrow时，继续借用未来的时间戳
+ * - 超过后等待时钟追上，单次最多等待max-wait
+ * - 无法在max-wait内追上的大幅回拨不等待，继续借用，ID在本进程内依然单调递增不会重复，只记录一次时钟回拨
  *
  * @author yeyuhl
  * @since 2023/10/16
  */
+@Slf4j
 @Component
 public class SnowflakeIdGenerator {
     /**
@@ -40,67 +66,362 @@ public class SnowflakeIdGenerator {
      * 支持的最大序列号数
      */
     private static final long MAX_SEQUENCE = ~(-1L << SEQUENCE_BITS);
+    /**
+     * 节点ID的数量，数据中心ID在高位，机器ID在低位
+     */
+    private static final int NODE_COUNT = 1 << (DATA_CENTER_ID_BITS + WORKER_ID_BITS);
+    /**
+     * 单次批量生成的最大数量，即一毫秒内的序列号数量，批量过大会一次借用过多未来的时间戳
+     */
+    public static final int MAX_BATCH = (int) MAX_SEQUENCE + 1;
 
     private static final long WORKER_ID_SHIFT = SEQUENCE_BITS;
     private static final long DATA_CENTER_ID_SHIFT = SEQUENCE_BITS + WORKER_ID_BITS;
     private static final long TIMESTAMP_SHIFT = SEQUENCE_BITS + WORKER_ID_BITS + DATA_CENTER_ID_BITS;
 
-    private final long dataCenterId;
-    private final long workerId;
-    private long lastTimestamp = -1L;
-    private long sequence = 0L;
+    @Autowired(required = false)
+    WorkerIdStore store;
+
+    /**
+     * 未租到节点ID时使用的数据中心ID，与机器ID组成的节点ID不会被租出
+     */
+    @Value("${spring.web.snowflake.data-center}")
+    long dataCenterId = 31;
+
+    /**
+     * 未租到节点ID时使用的机器ID
+     */
+    @Value("${spring.web.snowflake.worker}")
+    long workerId = 31;
+
+    /**
+     * 租约时长，以秒为单位
+     */
+    @Value("${spring.web.snowflake.lease-ttl}")
+    long leaseTtl = 30;
+
+    /**
+     * 续约间隔，以毫秒为单位
+     */
+    @Value("${spring.web.snowflake.heartbeat}")
+    long heartbeatInterval = 10000;
+
+    /**
+     * 最多允许领先系统时钟的毫秒数
+     */
+    @Value("${spring.web.snowflake.max-borrow}")
+    long maxBorrow = 5;
+
+    /**
+     * 时钟回拨时单次最多等待的毫秒数
+     */
+    @Value("${spring.web.snowflake.max-wait}")
+    long maxWait = 20;
+
+    /**
+     * 当前节点在租约存储中的标识
+     */
+    private final String owner = UUID.randomUUID().toString();
+
+    /**
+     * 租用的节点ID，未租用时为-1
+     */
+    private volatile int leasedNode = -1;
+
+    /**
+     * 上一次成功租用或续约的时间
+     */
+    private volatile long lastRenew;
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * 数据中心ID与机器ID组合后的位
+     */
+    private volatile long nodeBits;
+
+    /**
+     * 上一次分配的 (时间戳 << 序列号位数) | 序列号，时间戳为相对开始时间戳的偏移
+     */
+    private final AtomicLong state = new AtomicLong(-1L);
+
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder waitCount = new LongAdder();
+    private final LongAdder regressionCount = new LongAdder();
+    private volatile long lastWarn;
 
     public SnowflakeIdGenerator() {
-        this(1, 1);
+        this.assign(dataCenterId, workerId);
     }
 
-    private SnowflakeIdGenerator(long dataCenterId, long workerId) {
+    @PostConstruct
+    public void init() {
+        this.assign(dataCenterId, workerId);
+        if (!this.acquireLease()) {
+            log.warn("未能租用雪花算法节点ID，使用保留的节点ID：数据中心 {}，机器 {}，生成的ID可能与其他未租到节点ID的实例重复",
+                    dataCenterId, workerId);
+        }
+        if (store == null) return;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "snowflake-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.scheduleWithFixedDelay(this::heartbeat, heartbeatInterval, heartbeatInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (executor != null) executor.shutdownNow();
+        int node = leasedNode;
+        if (store == null || node < 0) return;
+        try {
+            store.release(node, owner);
+        } catch (RuntimeException e) {
+            log.warn("释放雪花算法节点ID {} 失败: {}", node, e.getMessage());
+        }
+    }
+
+    /**
+     * 定期续约，续约失败说明租约已过期并可能被其他节点抢占，需要重新租用
+     */
+    void heartbeat() {
+        int node = leasedNode;
+        if (store == null) return;
+        try {
+            if (node >= 0 && store.renew(node, owner, leaseTtl)) {
+                lastRenew = System.currentTimeMillis();
+                return;
+            }
+        } catch (RuntimeException e) {
+            // 存储不可用时其他节点也无法租用该节点ID，继续使用，存储恢复后续约或重新租用
+            if (node >= 0 && System.currentTimeMillis() - lastRenew > TimeUnit.SECONDS.toMillis(leaseTtl)) {
+                log.warn("雪花算法节点ID {} 的租约已过期，存储恢复前继续使用: {}", node, e.getMessage());
+            } else {
+                log.warn("雪花算法节点ID {} 续约失败: {}", node, e.getMessage());
+            }
+            return;
+        }
+        if (node >= 0) {
+            // 租约已被其他节点抢占，重新租用成功之前使用保留的节点ID
+            log.warn("雪花算法节点ID {} 的租约已丢失，重新租用", node);
+            this.assign(dataCenterId, workerId);
+            this.leasedNode = -1;
+        }
+        this.acquireLease();
+    }
+
+    /**
+     * 生成一个新的雪花算法ID
+     *
+     * @return 雪花ID
+     */
+    public long nextId() {
+        return this.compose(this.reserveState(1));
+    }
+
+    /**
+     * 一次生成多个连续的雪花算法ID，只需要一次CAS
+     *
+     * @param n 数量，不能超过一毫秒内的序列号数量MAX_BATCH
+     * @return 雪花ID，按生成顺序递增
+     */
+    public long[] nextIds(int n) {
+        long first = this.reserveState(n);
+        long[] ids = new long[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = this.compose(first + i);
+        }
+        return ids;
+    }
+
+    /**
+     * 预留一段连续的雪花算法ID，由调用方在本线程内逐个取用，适合保存在ThreadLocal中批量使用
+     * 不同线程的预留块互不重叠，但ID之间不再严格按时间顺序分配
+     *
+     * @param n 数量，不能超过一毫秒内的序列号数量MAX_BATCH
+     * @return 预留块
+     */
+    public Block reserve(int n) {
+        return new Block(this.reserveState(n), this.nodeBits, n);
+    }
+
+    /**
+     * @return 保留给未租到节点ID时使用的节点ID
+     */
+    public int fallbackNode() {
+        return (int) ((dataCenterId << WORKER_ID_BITS) | workerId);
+    }
+
+    /**
+     * 取出雪花ID中的节点ID
+     *
+     * @param id 雪花ID
+     * @return 节点ID，数据中心ID在高位，机器ID在低位
+     */
+    public static int nodeOf(long id) {
+        return (int) ((id >> WORKER_ID_SHIFT) & (NODE_COUNT - 1));
+    }
+
+    /**
+     * @return 当前租用的节点ID，未租用时为-1
+     */
+    public int leasedNode() {
+        return leasedNode;
+    }
+
+    /**
+     * @return 因时钟回拨累计等待的时间，以纳秒为单位
+     */
+    public long waitNanos() {
+        return waitNanos.sum();
+    }
+
+    /**
+     * @return 因时钟回拨等待的次数
+     */
+    public long waitCount() {
+        return waitCount.sum();
+    }
+
+    /**
+     * @return 无法等待追上、只能继续借用的次数
+     */
+    public long regressionCount() {
+        return regressionCount.sum();
+    }
+
+    /**
+     * 从随机位置开始依次尝试租用节点ID，避免同时启动的节点都从0开始竞争，保留的节点ID不参与租用
+     *
+     * @return 是否租用成功
+     */
+    private boolean acquireLease() {
+        if (store == null) return false;
+        int start = ThreadLocalRandom.current().nextInt(NODE_COUNT);
+        int reserved = this.fallbackNode();
+        try {
+            for (int i = 0; i < NODE_COUNT; i++) {
+                int node = (start + i) % NODE_COUNT;
+                if (node == reserved) continue;
+                if (store.tryAcquire(node, owner, leaseTtl)) {
+                    this.lastRenew = System.currentTimeMillis();
+                    this.assign(node >>> WORKER_ID_BITS, node & MAX_WORKER_ID);
+                    this.leasedNode = node;
+                    log.info("已租用雪花算法节点ID {}", node);
+                    return true;
+                }
+            }
+            log.warn("雪花算法节点ID已全部被占用");
+        } catch (RuntimeException e) {
+            log.warn("租用雪花算法节点ID失败: {}", e.getMessage());
+        }
+        return false;
+    }
+
+    private void assign(long dataCenterId, long workerId) {
         if (dataCenterId > MAX_DATA_CENTER_ID || dataCenterId < 0) {
             throw new IllegalArgumentException("Data center ID can't be greater than " + MAX_DATA_CENTER_ID + " or less than 0");
         }
         if (workerId > MAX_WORKER_ID || workerId < 0) {
             throw new IllegalArgumentException("Worker ID can't be greater than " + MAX_WORKER_ID + " or less than 0");
         }
-        this.dataCenterId = dataCenterId;
-        this.workerId = workerId;
+        this.nodeBits = (dataCenterId << DATA_CENTER_ID_SHIFT) | (workerId << WORKER_ID_SHIFT);
     }
 
     /**
-     * 生成一个新的雪花算法ID加锁
+     * 预留n个连续的状态值
      *
-     * @return 雪花ID
+     * @param n 数量
+     * @return 第一个状态值
      */
-    public synchronized long nextId() {
-        // 获取当前时间戳
-        long timestamp = getCurrentTimestamp();
-        if (timestamp < lastTimestamp) {
-            throw new IllegalStateException("Clock moved backwards. Refusing to generate ID.");
-        }
-        if (timestamp == lastTimestamp) {
-            sequence = (sequence + 1) & MAX_SEQUENCE;
-            if (sequence == 0) {
-                timestamp = getNextTimestamp(lastTimestamp);
+    private long reserveState(int n) {
+        if (n <= 0 || n > MAX_BATCH) throw new IllegalArgumentException("n must be between 1 and " + MAX_BATCH);
+        long waited = 0;
+        while (true) {
+            long last = state.get();
+            long now = getCurrentTimestamp() - START_TIMESTAMP;
+            long lead = (last >> SEQUENCE_BITS) - now;
+            if (lead > maxBorrow && lead - maxBorrow <= maxWait - waited) {
+                // 领先太多，等待系统时钟追上，总等待时间有上限，无法在上限内追上的大幅回拨不再等待
+                long wait = lead - maxBorrow;
+                long begin = System.nanoTime();
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(wait));
+                long spent = System.nanoTime() - begin;
+                waitNanos.add(spent);
+                waitCount.increment();
+                waited += Math.max(1, TimeUnit.NANOSECONDS.toMillis(spent));
+                continue;
+            }
+            // 同一毫秒或序列号已经进位到未来的毫秒，继续向后分配，序列号溢出时自然进位到时间戳
+            long first = lead < 0 ? now << SEQUENCE_BITS : last + 1;
+            if (state.compareAndSet(last, first + n - 1)) {
+                if (lead > maxBorrow) this.onRegression(lead);
+                return first;
             }
-        } else {
-            sequence = 0L;
         }
-        lastTimestamp = timestamp;
-        // 将当前时间戳与开始时间戳相减，再左移相应位数，再加上数据中心ID与机器ID，再加上序列号
-        return ((timestamp - START_TIMESTAMP) << TIMESTAMP_SHIFT) |
-                (dataCenterId << DATA_CENTER_ID_SHIFT) |
-                (workerId << WORKER_ID_SHIFT) |
-                sequence;
+    }
+
+    /**
+     * 记录一次无法等待追上的时钟回拨，日志每秒最多输出一次
+     *
+     * @param lead 领先系统时钟的毫秒数
+     */
+    private void onRegression(long lead) {
+        regressionCount.increment();
+        long now = System.currentTimeMillis();
+        long last = lastWarn;
+        if (now - last > 1000 || now < last) {
+            lastWarn = now;
+            log.warn("系统时钟落后已分配的时间戳 {}ms，继续借用未来的时间戳", lead);
+        }
+    }
+
+    /**
+     * 将状态值组合为雪花ID
+     */
+    private long compose(long value) {
+        return compose(value, nodeBits);
+    }
+
+    private static long compose(long value, long nodeBits) {
+        // 将时间戳左移相应位数，再加上数据中心ID与机器ID，再加上序列号
+        return ((value >> SEQUENCE_BITS) << TIMESTAMP_SHIFT) | nodeBits | (value & MAX_SEQUENCE);
     }
 
     private long getCurrentTimestamp() {
         return System.currentTimeMillis();
     }
 
-    private long getNextTimestamp(long lastTimestamp) {
-        long timestamp = getCurrentTimestamp();
-        while (timestamp <= lastTimestamp) {
-            timestamp = getCurrentTimestamp();
+    /**
+     * 预留的一段连续ID，不是线程安全的
+     * 预留时记录节点ID，节点ID在使用过程中发生变化也不会与其他节点重复
+     */
+    public static final class Block {
+        private final long first;
+        private final long nodeBits;
+        private final int size;
+        private int next;
+
+        private Block(long first, long nodeBits, int size) {
+            this.first = first;
+            this.nodeBits = nodeBits;
+            this.size = size;
+        }
+
+        /**
+         * @return 是否还有未使用的ID
+         */
+        public boolean hasNext() {
+            return next < size;
+        }
+
+        /**
+         * @return 下一个ID
+         */
+        public long next() {
+            if (next >= size) throw new IllegalStateException("Block exhausted");
+            return compose(first + next++, nodeBits);
         }
-        return timestamp;
     }
 }
@@ -0,0 +1,216 @@
+package io.github.yeyuhl.backend.utils;
+
+import io.github.yeyuhl.backend.utils.limit.LimitAlgorithm;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按网段聚合的限流器，用于应对分散在整个/24或/64网段中的请求
+ * - 网段内所有地址的请求在本地按窗口汇总计数，超过网段配额后封禁整个网段
+ * - 网段内的单个地址触发封禁时，在Redis中为网段记录一次，一个封禁周期内被封禁的地址数达到阈值后升级为封禁整个网段
+ * 网段封禁通过Redis频道通知其他节点，之后该网段的请求在本地直接拒绝，不会再为其中的地址创建Redis计数键，
+ * 节点启动时从Redis加载仍在生效的封禁
+ * 地址与网段都以128位整数表示，本地计数保存在基本类型的开放寻址表中
+ *
+ * @author yeyuhl
+ * @since 2023/10/31
+ */
+@Slf4j
+@Component
+public class SubnetLimiter implements MessageListener {
+    @Autowired
+    FlowUtils flowUtils;
+
+    @Autowired
+    StringRedisTemplate redisTemplate;
+
+    @Autowired
+    RedisCircuitBreaker breaker;
+
+    /**
+     * IPv4网段前缀长度
+     */
+    @Value("${spring.web.flow.subnet.ipv4-prefix}")
+    int ipv4Prefix;
+
+    /**
+     * IPv6网段前缀长度
+     */
+    @Value("${spring.web.flow.subnet.ipv6-prefix}")
+    int ipv6Prefix;
+
+    /**
+     * 限定时间内整个网段的最大请求次数
+     */
+    @Value("${spring.web.flow.subnet.limit}")
+    int limit;
+
+    /**
+     * 限定时间，与单个地址的限流周期相同
+     */
+    @Value("${spring.web.flow.period}")
+    int period;
+
+    /**
+     * 一个封禁周期内，网段中被封禁的地址数达到该值后封禁整个网段
+     */
+    @Value("${spring.web.flow.subnet.trips}")
+    int trips;
+
+    /**
+     * 网段的封禁时间
+     */
+    @Value("${spring.web.flow.subnet.block}")
+    int block;
+
+    /**
+     * 本地计数表的容量
+     */
+    @Value("${spring.web.flow.subnet.capacity}")
+    int capacity;
+
+    /**
+     * 网段 -> 当前窗口内的请求数，时间戳为窗口编号
+     */
+    private IpCounterTable counters;
+
+    /**
+     * 网段 -> 是否封禁，时间戳为封禁截止时间
+     */
+    private IpCounterTable blocks;
+
+    @PostConstruct
+    public void init() {
+        this.counters = new IpCounterTable(capacity);
+        this.blocks = new IpCounterTable(capacity);
+        this.loadBlocks();
+    }
+
+    /**
+     * 启动时从Redis加载仍在生效的网段封禁，重启后的节点不会遗忘其他节点通知过的封禁
+     */
+    private void loadBlocks() {
+        long now = System.currentTimeMillis();
+        int count = 0;
+        ScanOptions options = ScanOptions.scanOptions().match(Const.FLOW_SUBNET_BLOCK + "*").count(1000).build();
+        try (Cursor<String> cursor = redisTemplate.scan(options)) {
+            while (cursor.hasNext()) {
+                String key = cursor.next();
+                Long ttl = redisTemplate.getExpire(key, TimeUnit.MILLISECONDS);
+                if (ttl == null || ttl <= 0) continue;
+                int tag = key.indexOf('{');
+                IpKey prefix = IpKey.fromHex(key.substring(Const.FLOW_SUBNET_BLOCK.length(), tag < 0 ? key.length() : tag));
+                if (blocks.put(prefix, 1, now + ttl, now)) count++;
+            }
+            log.info("已从Redis加载{}个网段封禁", count);
+        } catch (RuntimeException e) {
+            log.warn("网段封禁加载失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 计算地址所在的网段
+     *
+     * @param address 客户端地址
+     * @return 网段，地址格式无法识别时返回null
+     */
+    public IpKey prefixOf(String address) {
+        IpKey key = IpKey.parse(address);
+        return key == null ? null : key.prefix(ipv4Prefix, ipv6Prefix);
+    }
+
+    /**
+     * 对网段请求计数
+     *
+     * @param prefix 网段
+     * @return 是否通过限流检查，网段已被封禁或超过配额时返回false
+     */
+    public boolean tryCount(IpKey prefix) {
+        long now = System.currentTimeMillis();
+        if (blocks.get(prefix, now) > 0) return false;
+        long window = now / (period * 1000L) + 1;
+        if (counters.addAndGet(prefix, 1, window, window) > limit) {
+            this.block(prefix);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 网段中有地址被封禁时调用，累计到一定次数后升级为封禁整个网段
+     *
+     * @param prefix 网段
+     */
+    public void trip(IpKey prefix) {
+        String hex = prefix.toHex();
+        try {
+            // 配额为trips - 1，第trips次被拒绝，即第trips个地址被封禁时封禁整个网段
+            if (!flowUtils.limitPeriodCheck(LimitAlgorithm.FIXED_WINDOW, Const.FLOW_SUBNET_TRIP + hex,
+                    Const.FLOW_SUBNET_BLOCK + hex, block, trips - 1, block)) {
+                this.block(prefix);
+            }
+        } catch (RuntimeException e) {
+            log.warn("网段封禁计数失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 封禁网段，并通知其他节点
+     *
+     * @param prefix 网段
+     */
+    private void block(IpKey prefix) {
+        if (!this.blockLocal(prefix)) return;
+        String hex = prefix.toHex();
+        log.info("网段 {} 请求过于频繁，已封禁 {} 秒", hex, block);
+        // Redis不可用时封禁只在本节点生效
+        breaker.execute(() -> {
+            redisTemplate.opsForValue().set(FlowUtils.blockKey(Const.FLOW_SUBNET_TRIP + hex, Const.FLOW_SUBNET_BLOCK + hex),
+                    "", block, TimeUnit.SECONDS);
+            redisTemplate.convertAndSend(Const.FLOW_SUBNET_CHANNEL, hex);
+            return true;
+        }, () -> false);
+    }
+
+    /**
+     * 在本地记录网段封禁
+     *
+     * @param prefix 网段
+     * @return 是否为新的封禁，已处于封禁中时返回false
+     */
+    private boolean blockLocal(IpKey prefix) {
+        long now = System.currentTimeMillis();
+        if (blocks.get(prefix, now) > 0) return false;
+        return blocks.put(prefix, 1, now + block * 1000L, now);
+    }
+
+    /**
+     * 接收其他节点的网段封禁通知
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        this.blockLocal(IpKey.fromHex(new String(message.getBody(), StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * 定期清理过期的计数与封禁，避免探测链越来越长
+     */
+    @Scheduled(fixedDelay = 1, timeUnit = TimeUnit.MINUTES)
+    public void purge() {
+        long now = System.currentTimeMillis();
+        counters.purge(now / (period * 1000L) + 1);
+        blocks.purge(now);
+    }
+}
@@ -0,0 +1,185 @@
+package io.github.yeyuhl.backend.utils;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 旁路截取响应内容的包装类
+ * 与ContentCachingResponseWrapper不同，响应内容直接写给客户端，不会在内存中缓存整个响应体，
+ * 只在需要记录时额外保存前maxBytes个字节，是否记录在第一次写入时根据采样结果与状态码决定，
+ * SpringSecurity的认证失败等错误以HTTP 200返回，错误码只在RestBean的code中，因此还会检查第一段内容中的code
+ *
+ * @author yeyuhl
+ * @since 2023/11/05
+ */
+public class TeeResponseWrapper extends HttpServletResponseWrapper {
+    private static final byte[] CODE_FIELD = "\"code\":".getBytes(StandardCharsets.US_ASCII);
+
+    private final boolean sampled;
+    private final int maxBytes;
+
+    private TeeOutputStream outputStream;
+    private PrintWriter writer;
+
+    /**
+     * 截取的内容，未决定是否截取时为null
+     */
+    private byte[] captured;
+    private int size;
+    private boolean truncated;
+    private boolean decided;
+
+    /**
+     * @param response 原始响应
+     * @param sampled  当前请求是否被采样，未被采样时只截取错误响应，包括HTTP状态码与RestBean的code两种
+     * @param maxBytes 最多截取的字节数
+     */
+    public TeeResponseWrapper(HttpServletResponse response, boolean sampled, int maxBytes) {
+        super(response);
+        this.sampled = sampled;
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (writer != null) throw new IllegalStateException("getWriter() has already been called");
+        if (outputStream == null) outputStream = new TeeOutputStream(super.getOutputStream());
+        return outputStream;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (writer == null) {
+            if (outputStream != null) throw new IllegalStateException("getOutputStream() has already been called");
+            outputStream = new TeeOutputStream(super.getOutputStream());
+            writer = new PrintWriter(new OutputStreamWriter(outputStream, Charset.forName(this.getCharacterEncoding())));
+        }
+        return writer;
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+        if (writer != null) writer.flush();
+        super.flushBuffer();
+    }
+
+    /**
+     * 请求结束时调用，把字符流中尚未编码的内容写出
+     */
+    public void finish() throws IOException {
+        if (writer != null) writer.flush();
+    }
+
+    /**
+     * @return 截取的响应内容，没有截取时为null
+     */
+    public byte[] captured() {
+        if (captured == null) return null;
+        return size == captured.length ? captured : Arrays.copyOf(captured, size);
+    }
+
+    /**
+     * @return 响应内容是否超过截取上限
+     */
+    public boolean truncated() {
+        return truncated;
+    }
+
+    private boolean shouldCapture(byte[] b, int off, int len) {
+        if (maxBytes <= 0) return false;
+        if (sampled || this.getStatus() >= 400) return true;
+        return restCode(b, off, len) >= 400;
+    }
+
+    private void capture(byte[] b, int off, int len) {
+        if (!decided) {
+            decided = true;
+            // 状态码通常在写入响应体之前设置好，此时即可判断是否为错误响应
+            if (this.shouldCapture(b, off, len)) captured = new byte[Math.min(maxBytes, 256)];
+        }
+        if (captured == null || len == 0) return;
+        int take = Math.min(len, maxBytes - size);
+        if (take < len) truncated = true;
+        if (take <= 0) return;
+        if (size + take > captured.length) {
+            captured = Arrays.copyOf(captured, Math.min(maxBytes, Math.max(captured.length * 2, size + take)));
+        }
+        System.arraycopy(b, off, captured, size, take);
+        size += take;
+    }
+
+    /**
+     * 从响应体开头读取RestBean的code字段，只查找前128个字节
+     *
+     * @return code，没有找到时返回-1
+     */
+    static int restCode(byte[] b, int off, int len) {
+        int end = off + Math.min(len, 128);
+        outer:
+        for (int i = off; i + CODE_FIELD.length <= end; i++) {
+            for (int j = 0; j < CODE_FIELD.length; j++) {
+                if (b[i + j] != CODE_FIELD[j]) continue outer;
+            }
+            int code = -1;
+            for (int k = i + CODE_FIELD.length; k < end && b[k] >= '0' && b[k] <= '9'; k++) {
+                code = Math.max(code, 0) * 10 + (b[k] - '0');
+            }
+            return code;
+        }
+        return -1;
+    }
+
+    /**
+     * 写入原始输出流的同时截取内容
+     */
+    private final class TeeOutputStream extends ServletOutputStream {
+        private final ServletOutputStream delegate;
+        private final byte[] single = new byte[1];
+
+        TeeOutputStream(ServletOutputStream delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            delegate.write(b);
+            single[0] = (byte) b;
+            capture(single, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            delegate.write(b, off, len);
+            capture(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            delegate.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+
+        @Override
+        public boolean isReady() {
+            return delegate.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener listener) {
+            delegate.setWriteListener(listener);
+        }
+    }
+}
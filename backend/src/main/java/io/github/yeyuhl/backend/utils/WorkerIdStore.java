@@ -0,0 +1,39 @@
+package io.github.yeyuhl.backend.utils;
+
+/**
+ * 雪花算法节点ID的租约存储
+ * 每个节点启动时抢占一个空闲的节点ID并定期续约，节点下线或续约中断后租约过期，ID可以被其他节点使用，
+ * 默认实现基于Redis，也可以替换为数据库、ZooKeeper等其他存储
+ *
+ * @author yeyuhl
+ * @since 2023/11/09
+ */
+public interface WorkerIdStore {
+    /**
+     * 尝试抢占节点ID
+     *
+     * @param nodeId     节点ID
+     * @param owner      当前节点的标识
+     * @param ttlSeconds 租约时长，以秒为单位
+     * @return 是否抢占成功
+     */
+    boolean tryAcquire(int nodeId, String owner, long ttlSeconds);
+
+    /**
+     * 续约，只有租约仍属于当前节点时才会成功
+     *
+     * @param nodeId     节点ID
+     * @param owner      当前节点的标识
+     * @param ttlSeconds 租约时长，以秒为单位
+     * @return 是否续约成功，租约已过期或被其他节点抢占时返回false
+     */
+    boolean renew(int nodeId, String owner, long ttlSeconds);
+
+    /**
+     * 主动释放租约，只有租约仍属于当前节点时才会释放
+     *
+     * @param nodeId 节点ID
+     * @param owner  当前节点的标识
+     */
+    void release(int nodeId, String owner);
+}
@@ -0,0 +1,32 @@
+package io.github.yeyuhl.backend.utils.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * 按用户名或邮箱查询账户事件
+ *
+ * @author yeyuhl
+ * @since 2023/11/07
+ */
+@Name("io.github.yeyuhl.AccountLookup")
+@Label("Account Lookup")
+@Category({"LoginByJWT", "Database"})
+@Description("按用户名或邮箱查询账户")
+@StackTrace(false)
+public class AccountLookupEvent extends Event {
+    @Label("By Email")
+    @Description("查询条件是否为邮箱")
+    public boolean byEmail;
+
+    @Label("Found")
+    public boolean found;
+
+    @Label("Outcome")
+    @Description("ok或error")
+    public String outcome;
+}
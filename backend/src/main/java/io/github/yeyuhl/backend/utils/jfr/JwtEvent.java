@@ -0,0 +1,32 @@
+package io.github.yeyuhl.backend.utils.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JWT令牌解析与签发事件
+ *
+ * @author yeyuhl
+ * @since 2023/11/07
+ */
+@Name("io.github.yeyuhl.Jwt")
+@Label("JWT")
+@Category({"LoginByJWT", "Auth"})
+@Description("解析或签发JWT令牌")
+@StackTrace(false)
+public class JwtEvent extends Event {
+    @Label("Operation")
+    @Description("resolve或create")
+    public String operation;
+
+    @Label("Outcome")
+    @Description("解析：none/cached/fast/verified/invalid/revoked，签发：issued/throttled/unavailable")
+    public String outcome;
+
+    @Label("User ID")
+    public int userId;
+}
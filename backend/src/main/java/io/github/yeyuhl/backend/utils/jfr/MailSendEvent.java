@@ -0,0 +1,29 @@
+package io.github.yeyuhl.backend.utils.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * 验证码邮件发送事件
+ *
+ * @author yeyuhl
+ * @since 2023/11/07
+ */
+@Name("io.github.yeyuhl.MailSend")
+@Label("Mail Send")
+@Category({"LoginByJWT", "Mail"})
+@Description("发送一封验证码邮件")
+@StackTrace(false)
+public class MailSendEvent extends Event {
+    @Label("Type")
+    @Description("register或reset")
+    public String type;
+
+    @Label("Outcome")
+    @Description("sent/skipped/error")
+    public String outcome;
+}
@@ -0,0 +1,28 @@
+package io.github.yeyuhl.backend.utils.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * BCrypt加密与校验事件
+ *
+ * @author yeyuhl
+ * @since 2023/11/07
+ */
+@Name("io.github.yeyuhl.PasswordEncoder")
+@Label("BCrypt")
+@Category({"LoginByJWT", "Auth"})
+@Description("BCrypt加密或校验密码")
+@StackTrace(false)
+public class PasswordEncoderEvent extends Event {
+    @Label("Operation")
+    @Description("encode或matches")
+    public String operation;
+
+    @Label("Matched")
+    public boolean matched;
+}
@@ -0,0 +1,83 @@
+package io.github.yeyuhl.backend.utils.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+
+/**
+ * 限流脚本调用事件，熔断降级到本地限流时同样会记录
+ * 计数键中含有IP地址、用户ID或邮箱，JFR录制文件可能被导出分析，因此只记录键的前缀与加盐摘要，
+ * 同一进程内相同的键摘要相同，可以用来关联同一个客户端的事件，但无法从摘要还原原始内容
+ *
+ * @author yeyuhl
+ * @since 2023/11/07
+ */
+@Name("io.github.yeyuhl.RedisLimit")
+@Label("Redis Limit")
+@Category({"LoginByJWT", "Redis"})
+@Description("执行一次限流脚本")
+@StackTrace(false)
+public class RedisLimitEvent extends Event {
+    @Label("Algorithm")
+    public String algorithm;
+
+    /**
+     * 进程启动时随机生成的盐，避免通过枚举IPv4地址等取值空间较小的内容反推摘要
+     */
+    private static final byte[] SALT = new byte[16];
+
+    static {
+        new SecureRandom().nextBytes(SALT);
+    }
+
+    @Label("Key")
+    @Description("计数键的前缀与摘要")
+    public String key;
+
+    @Label("Cost")
+    public int cost;
+
+    @Label("Used")
+    @Description("当前周期内已消耗的请求数，拒绝时为-1")
+    public long used;
+
+    @Label("Breaker State")
+    @Description("调用时熔断器的状态，OPEN表示走了本地降级")
+    public String breakerState;
+
+    /**
+     * 保留键开头由小写字母组成的各段前缀，其余部分替换为加盐摘要，例如flow:counter:1.2.3.4记录为flow:counter:#9f86d081
+     *
+     * @param key 计数键
+     * @return 脱敏后的键
+     */
+    public static String maskKey(String key) {
+        int end = 0;
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (c == ':') {
+                end = i + 1;
+            } else if ((c < 'a' || c > 'z') && c != '-' && c != '_') {
+                break;
+            }
+        }
+        if (end == key.length()) return key;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(SALT);
+            byte[] hash = digest.digest(key.substring(end).getBytes(StandardCharsets.UTF_8));
+            return key.substring(0, end) + "#" + HexFormat.of().formatHex(hash, 0, 4);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
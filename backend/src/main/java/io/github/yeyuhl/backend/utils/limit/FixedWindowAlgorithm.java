@@ -0,0 +1,25 @@
+package io.github.yeyuhl.backend.utils.limit;
+
+/**
+ * 固定窗口计数，每个键只保存一个计数器
+ * 实现最简单，但在窗口边界前后各发送一次配额的请求时，短时间内最多可以通过两倍配额
+ *
+ * @author yeyuhl
+ * @since 2023/10/29
+ */
+public class FixedWindowAlgorithm implements RateLimitAlgorithm {
+    @Override
+    public String script() {
+        return """
+                local count = tonumber(redis.call('GET', key) or '0')
+                if force or count + cost <= limit then
+                    count = redis.call('INCRBY', key, cost)
+                    if redis.call('PTTL', key) < 0 then redis.call('PEXPIRE', key, period * 1000) end
+                    allowed = count <= limit
+                else
+                    allowed = false
+                end
+                used = count
+                """;
+    }
+}
@@ -0,0 +1,29 @@
+package io.github.yeyuhl.backend.utils.limit;
+
+/**
+ * 通用信元速率算法（GCRA），每个键只保存一个理论到达时间（TAT）
+ * 请求按 周期/配额 的间隔匀速发放，允许一次性突发整个配额，
+ * 相比窗口计数没有边界问题，并且被拒绝的请求不会改变状态
+ *
+ * @author yeyuhl
+ * @since 2023/10/29
+ */
+public class GcraAlgorithm implements RateLimitAlgorithm {
+    @Override
+    public String script() {
+        return """
+                local interval = period * 1000 / limit
+                local tat = tonumber(redis.call('GET', key) or '0')
+                if tat < now then tat = now end
+                local arrival = math.ceil(tat + interval * cost)
+                if force or arrival - period * 1000 <= now then
+                    redis.call('SET', key, arrival, 'PX', math.max(arrival - now, 1))
+                    allowed = arrival - period * 1000 <= now
+                    tat = arrival
+                else
+                    allowed = false
+                end
+                used = math.ceil((tat - now) / interval)
+                """;
+    }
+}
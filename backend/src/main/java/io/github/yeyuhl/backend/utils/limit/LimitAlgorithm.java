@@ -0,0 +1,26 @@
+package io.github.yeyuhl.backend.utils.limit;
+
+/**
+ * 可供配置选择的限流算法
+ *
+ * @author yeyuhl
+ * @since 2023/10/29
+ */
+public enum LimitAlgorithm {
+    FIXED_WINDOW(new FixedWindowAlgorithm()),
+    SLIDING_WINDOW(new SlidingWindowAlgorithm()),
+    GCRA(new GcraAlgorithm());
+
+    private final RateLimitAlgorithm algorithm;
+
+    LimitAlgorithm(RateLimitAlgorithm algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * @return 对应的算法实现
+     */
+    public RateLimitAlgorithm algorithm() {
+        return algorithm;
+    }
+}
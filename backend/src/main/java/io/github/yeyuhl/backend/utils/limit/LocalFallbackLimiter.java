@@ -0,0 +1,75 @@
+package io.github.yeyuhl.backend.utils.limit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Redis不可用时使用的本地限流器
+ * 与Redis脚本使用相同的参数与返回值约定，统一按固定窗口计数，计数只在当前节点内有效，
+ * 因此集群的实际配额会放大为节点数倍，仅用于熔断期间的降级
+ *
+ * @author yeyuhl
+ * @since 2023/11/01
+ */
+public class LocalFallbackLimiter {
+    /**
+     * 计数键 -> 窗口
+     */
+    private final Cache<String, Window> windows;
+
+    /**
+     * 封禁键 -> 封禁截止时间
+     */
+    private final Cache<String, Long> blocks;
+
+    /**
+     * @param maximumSize 最多保存的键数量
+     */
+    public LocalFallbackLimiter(long maximumSize) {
+        this.windows = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterAccess(10, TimeUnit.MINUTES)
+                .build();
+        this.blocks = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(1, TimeUnit.HOURS)
+                .build();
+    }
+
+    /**
+     * 在本地执行一次限流检查，参数含义与FlowUtils中的脚本相同
+     *
+     * @return 当前周期内已消耗的请求数，拒绝时返回-1
+     */
+    public long execute(String counterKey, String blockKey, int limit, int period,
+                        int cost, boolean force, int blockTime, int overLimit) {
+        long now = System.currentTimeMillis();
+        Long until = blocks.getIfPresent(blockKey);
+        if (until != null && until > now) return -1;
+        Window window = windows.get(counterKey, key -> new Window());
+        synchronized (window) {
+            if (now - window.start >= period * 1000L) {
+                window.start = now;
+                window.count = 0;
+                window.over = 0;
+            }
+            if (force || window.count + cost <= limit) {
+                window.count += cost;
+                if (window.count <= limit) return window.count;
+            }
+            if (blockTime > 0 && ++window.over > overLimit) {
+                blocks.put(blockKey, now + blockTime * 1000L);
+                window.over = 0;
+            }
+            return -1;
+        }
+    }
+
+    private static final class Window {
+        long start;
+        long count;
+        int over;
+    }
+}
@@ -0,0 +1,25 @@
+package io.github.yeyuhl.backend.utils.limit;
+
+/**
+ * 限流算法策略接口
+ * 每种算法提供一段Lua脚本片段，由FlowUtils拼接上封禁检查与升级封禁的公共逻辑后，作为一个原子脚本在Redis中执行
+ * 片段中可以直接使用以下局部变量：
+ * - key：计数键
+ * - windows：两个可供轮换使用的窗口键，需要按窗口区分计数的算法使用，不能自行拼接未在KEYS中声明的键
+ * - limit：周期内允许的请求数
+ * - period：周期，以秒为单位
+ * - now：Redis服务器当前时间，以毫秒为单位
+ * - cost：本次消耗的请求数
+ * - force：为true时无论是否超限都要计入消耗，用于上报本地已放行的请求
+ * 片段需要为allowed（是否放行）与used（当前周期内已消耗的请求数估计值）赋值，
+ * 并且每个键只能保存O(1)大小的状态
+ *
+ * @author yeyuhl
+ * @since 2023/10/29
+ */
+public interface RateLimitAlgorithm {
+    /**
+     * @return 算法的Lua脚本片段
+     */
+    String script();
+}
@@ -0,0 +1,36 @@
+package io.github.yeyuhl.backend.utils.limit;
+
+/**
+ * 滑动窗口计数，每个键只保存当前与上一个窗口的两个计数器
+ * 两个窗口键按窗口序号的奇偶轮换使用，键中记录所属的窗口序号，序号不匹配时视为计数为0
+ * 按当前时间在窗口中的位置对上一个窗口的计数加权，估算最近一个周期内的请求数，消除了窗口边界的突发
+ *
+ * @author yeyuhl
+ * @since 2023/10/29
+ */
+public class SlidingWindowAlgorithm implements RateLimitAlgorithm {
+    @Override
+    public String script() {
+        return """
+                local window = period * 1000
+                local index = math.floor(now / window)
+                local currentKey = windows[index % 2 + 1]
+                local state = redis.call('HMGET', currentKey, 'index', 'count')
+                local current = tonumber(state[1]) == index and tonumber(state[2]) or 0
+                state = redis.call('HMGET', windows[(index + 1) % 2 + 1], 'index', 'count')
+                local previous = tonumber(state[1]) == index - 1 and tonumber(state[2]) or 0
+                local weight = 1 - (now % window) / window
+                local estimated = previous * weight + current
+                if force or estimated + cost <= limit then
+                    current = current + cost
+                    redis.call('HSET', currentKey, 'index', index, 'count', current)
+                    redis.call('PEXPIRE', currentKey, window * 2)
+                    estimated = previous * weight + current
+                    allowed = estimated <= limit
+                else
+                    allowed = false
+                end
+                used = math.ceil(estimated)
+                """;
+    }
+}
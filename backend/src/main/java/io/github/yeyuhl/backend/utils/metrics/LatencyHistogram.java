@@ -0,0 +1,126 @@
+package io.github.yeyuhl.backend.utils.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 无锁延迟直方图，参考HdrHistogram的对数线性分桶
+ * 每个2的幂区间再均分为32个子桶，任意取值的相对误差不超过1/32，记录只需要计算下标并对一个桶原子加一，
+ * 不需要加锁，也不会像保存全部样本那样随请求量增长占用内存
+ * 取值以纳秒为单位，上限约为18分钟，超过上限的值计入最后一个桶
+ *
+ * @author yeyuhl
+ * @since 2023/11/06
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * 记录一次耗时
+     *
+     * @param nanos 耗时，以纳秒为单位
+     */
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        counts.incrementAndGet(indexOf(value));
+        count.increment();
+        sum.add(value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * 记录从start开始到现在的耗时
+     *
+     * @param start System.nanoTime()得到的起始时间
+     */
+    public void recordSince(long start) {
+        this.record(System.nanoTime() - start);
+    }
+
+    /**
+     * 获取当前数据的快照，快照中的分位数相互一致，不受并发写入的影响
+     *
+     * @return 快照
+     */
+    public Snapshot snapshot() {
+        long[] buckets = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = counts.get(i);
+            total += buckets[i];
+        }
+        return new Snapshot(buckets, total, sum.sum(), max.get());
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_EXPONENT);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int sub = (int) Math.min((value >>> shift) - SUB_BUCKETS, SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return 桶内的最大取值
+     */
+    static long highestValueOf(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int shift = index / SUB_BUCKETS - 1;
+        int sub = index % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << shift) - 1;
+    }
+
+    /**
+     * 直方图快照
+     *
+     * @param buckets 各个桶的计数
+     * @param count   样本数
+     * @param sum     样本总和，以纳秒为单位
+     * @param max     最大值，以纳秒为单位
+     */
+    public record Snapshot(long[] buckets, long count, long sum, long max) {
+        /**
+         * 获取分位数
+         *
+         * @param quantile 分位，取值0到1
+         * @return 分位数，以纳秒为单位，没有样本时为0
+         */
+        public long quantile(double quantile) {
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) return Math.min(highestValueOf(i), max);
+            }
+            return max;
+        }
+
+        /**
+         * 获取不超过指定值的样本数，用于输出Prometheus直方图的累计桶
+         * 只统计上界不超过该值的桶，与该值落在同一个桶中的样本不计入，误差同样不超过1/32
+         *
+         * @param nanos 上界，以纳秒为单位
+         * @return 样本数
+         */
+        public long countAtOrBelow(long nanos) {
+            long seen = 0;
+            for (int i = 0; i < buckets.length && highestValueOf(i) <= nanos; i++) {
+                seen += buckets[i];
+            }
+            return seen;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package io.github.yeyuhl.backend.utils.metrics;
+
+import io.github.yeyuhl.backend.filter.LoginBulkheadFilter;
+import io.github.yeyuhl.backend.utils.AccountBloomFilter;
+import io.github.yeyuhl.backend.utils.AdaptiveBulkhead;
+import io.github.yeyuhl.backend.utils.JwtCache;
+import io.github.yeyuhl.backend.utils.RedisCircuitBreaker;
+import io.github.yeyuhl.backend.utils.RequestLogWriter;
+import io.github.yeyuhl.backend.utils.SnowflakeIdGenerator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 延迟指标汇总
+ * 按路由、请求方法与状态码类别分别统计请求延迟，加上各个内部阶段的延迟与熔断器、登录舱壁、令牌缓存、请求日志、ID生成器、账户布隆过滤器等组件的状态，
+ * 以Prometheus文本格式输出
+ * 延迟以累计的histogram输出，分位数由Prometheus按查询的时间窗口计算，例如histogram_quantile(0.99, rate(...[5m]))，
+ * 不会像进程内计算的分位数那样包含启动以来的全部样本、无法反映最近的变化
+ * 路由使用Controller映射的路径模式而不是原始路径，避免带参数的路径产生大量序列，序列总数有上限，超出后计入other
+ *
+ * @author yeyuhl
+ * @since 2023/11/06
+ */
+@Component
+public class LatencyMetrics {
+    /**
+     * 直方图的桶上界，以秒为单位
+     */
+    private static final double[] BOUNDS = {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+    private static final Set<String> METHODS = Set.of("GET", "POST", "PUT", "DELETE", "PATCH", "HEAD", "OPTIONS");
+
+    @Autowired
+    RedisCircuitBreaker breaker;
+
+    @Autowired
+    LoginBulkheadFilter loginBulkheadFilter;
+
+    @Autowired
+    RequestLogWriter requestLogWriter;
+
+    @Autowired
+    SnowflakeIdGenerator snowflakeIdGenerator;
+
+    @Autowired
+    AccountBloomFilter accountBloomFilter;
+
+    @Autowired
+    JwtCache jwtCache;
+
+    /**
+     * 最多统计的请求序列数
+     */
+    @Value("${spring.web.metrics.max-series}")
+    int maxSeries;
+
+    private final Map<Series, LatencyHistogram> requests = new ConcurrentHashMap<>();
+
+    /**
+     * 记录一次请求的耗时
+     *
+     * @param route  路由
+     * @param method 请求方法
+     * @param status 响应状态码
+     * @param nanos  耗时，以纳秒为单位
+     */
+    public void recordRequest(String route, String method, int status, long nanos) {
+        // 请求方法也来自客户端，同样需要限制取值范围
+        Series series = new Series(route, METHODS.contains(method) ? method : "OTHER", status / 100 + "xx");
+        LatencyHistogram histogram = requests.get(series);
+        if (histogram == null) {
+            if (requests.size() >= maxSeries) series = new Series("other", series.method(), series.status());
+            histogram = requests.computeIfAbsent(series, k -> new LatencyHistogram());
+        }
+        histogram.record(nanos);
+    }
+
+    /**
+     * 以Prometheus文本格式输出全部指标
+     *
+     * @return 指标文本
+     */
+    public String scrape() {
+        StringBuilder builder = new StringBuilder(4096);
+        builder.append("# HELP http_server_requests_seconds Request latency by route, method and status class\n")
+                .append("# TYPE http_server_requests_seconds histogram\n");
+        requests.forEach((series, histogram) -> this.appendHistogram(builder, "http_server_requests_seconds",
+                "route=\"" + escape(series.route()) + "\",method=\"" + series.method()
+                        + "\",status=\"" + series.status() + "\"", histogram.snapshot()));
+        builder.append("# HELP app_stage_seconds Latency of internal request stages\n")
+                .append("# TYPE app_stage_seconds histogram\n");
+        for (Stage stage : Stage.values()) {
+            this.appendHistogram(builder, "app_stage_seconds", "stage=\"" + stage.label() + "\"",
+                    stage.histogram().snapshot());
+        }
+        this.appendGauge(builder, "redis_breaker_state", "Redis circuit breaker state (0 closed, 1 open, 2 half open)",
+                breaker.state().ordinal());
+        this.appendCounter(builder, "redis_breaker_calls_total", "Redis calls through the breaker", breaker.calls());
+        this.appendCounter(builder, "redis_breaker_failures_total", "Failed or slow Redis calls", breaker.failures());
+        this.appendCounter(builder, "redis_breaker_rejections_total", "Calls rejected while open", breaker.rejections());
+        this.appendCounter(builder, "redis_breaker_opens_total", "Times the breaker opened", breaker.openCount());
+        AdaptiveBulkhead bulkhead = loginBulkheadFilter.bulkhead();
+        this.appendGauge(builder, "login_bulkhead_limit", "Current login concurrency limit", bulkhead.limit());
+        this.appendGauge(builder, "login_bulkhead_in_flight", "Logins in progress", bulkhead.inFlight());
+        this.appendGauge(builder, "login_bulkhead_queue", "Logins waiting for a slot", bulkhead.queueDepth());
+        this.appendCounter(builder, "login_bulkhead_accepted_total", "Logins admitted", bulkhead.acceptedCount());
+        this.appendCounter(builder, "login_bulkhead_shed_total", "Logins rejected with 503", bulkhead.shedCount());
+        this.appendCounter(builder, "jwt_cache_hits_total", "Tokens resolved from the local cache", jwtCache.hitCount());
+        this.appendCounter(builder, "jwt_cache_misses_total", "Tokens parsed and verified", jwtCache.missCount());
+        this.appendGauge(builder, "request_log_pending", "Request logs waiting to be written", requestLogWriter.pending());
+        this.appendCounter(builder, "request_log_dropped_total", "Request logs dropped", requestLogWriter.droppedCount());
+        this.appendCounter(builder, "request_log_sampled_out_total", "Request logs skipped by sampling",
+                requestLogWriter.sampledOutCount());
+        this.appendCounter(builder, "request_log_written_total", "Request logs written", requestLogWriter.writtenCount());
+        this.appendCounter(builder, "request_log_failed_total", "Request logs that failed to write",
+                requestLogWriter.failedCount());
+        this.appendGauge(builder, "snowflake_node", "Leased snowflake node id (-1 when using the configured id)",
+                snowflakeIdGenerator.leasedNode());
+        this.appendCounter(builder, "snowflake_waits_total", "Waits for the clock to catch up",
+                snowflakeIdGenerator.waitCount());
+        builder.append("# HELP snowflake_wait_seconds_total Time spent waiting for the clock to catch up\n")
+                .append("# TYPE snowflake_wait_seconds_total counter\n")
+                .append("snowflake_wait_seconds_total ").append(seconds(snowflakeIdGenerator.waitNanos())).append('\n');
+        this.appendCounter(builder, "snowflake_clock_regressions_total", "Clock regressions too large to wait out",
+                snowflakeIdGenerator.regressionCount());
+        this.appendGauge(builder, "account_bloom_accounts", "Accounts loaded at the last rebuild",
+                accountBloomFilter.loadedCount());
+        this.appendGauge(builder, "account_bloom_memory_bytes", "Account bloom filter bit array size",
+                accountBloomFilter.memoryBytes());
+        builder.append("# HELP account_bloom_expected_fpp Estimated false positive rate from the set bits\n")
+                .append("# TYPE account_bloom_expected_fpp gauge\n")
+                .append("account_bloom_expected_fpp ").append(accountBloomFilter.expectedFpp()).append('\n');
+        this.appendCounter(builder, "account_bloom_checks_total", "Existence checks against the filter",
+                accountBloomFilter.checkCount());
+        this.appendCounter(builder, "account_bloom_negatives_total", "Checks answered without the database",
+                accountBloomFilter.negativeCount());
+        this.appendCounter(builder, "account_bloom_false_positives_total", "Positives not found in the database",
+                accountBloomFilter.falsePositiveCount());
+        this.appendCounter(builder, "account_bloom_false_negatives_total", "Negatives found in the database",
+                accountBloomFilter.falseNegativeCount());
+        return builder.toString();
+    }
+
+    private void appendHistogram(StringBuilder builder, String name, String labels, LatencyHistogram.Snapshot snapshot) {
+        for (double bound : BOUNDS) {
+            builder.append(name).append("_bucket{").append(labels).append(",le=\"").append(bound).append("\"} ")
+                    .append(snapshot.countAtOrBelow((long) (bound * 1e9))).append('\n');
+        }
+        builder.append(name).append("_bucket{").append(labels).append(",le=\"+Inf\"} ")
+                .append(snapshot.count()).append('\n');
+        builder.append(name).append("_count{").append(labels).append("} ").append(snapshot.count()).append('\n');
+        builder.append(name).append("_sum{").append(labels).append("} ").append(seconds(snapshot.sum())).append('\n');
+    }
+
+    private void appendGauge(StringBuilder builder, String name, String help, long value) {
+        builder.append("# HELP ").append(name).append(' ').append(help).append('\n')
+                .append("# TYPE ").append(name).append(" gauge\n")
+                .append(name).append(' ').append(value).append('\n');
+    }
+
+    private void appendCounter(StringBuilder builder, String name, String help, long value) {
+        builder.append("# HELP ").append(name).append(' ').append(help).append('\n')
+                .append("# TYPE ").append(name).append(" counter\n")
+                .append(name).append(' ').append(value).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return String.valueOf(nanos / 1e9);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private record Series(String route, String method, String status) {
+    }
+}
@@ -0,0 +1,40 @@
+package io.github.yeyuhl.backend.utils.metrics;
+
+/**
+ * 请求处理过程中需要单独计时的内部阶段
+ * 每个阶段持有一个全局的延迟直方图，RestBean这类不由Spring管理的类也可以直接记录
+ *
+ * @author yeyuhl
+ * @since 2023/11/06
+ */
+public enum Stage {
+    JWT_VERIFY("jwt_verify"),
+    REDIS_LIMIT("redis_limit"),
+    DB_LOOKUP("db_lookup"),
+    BCRYPT("bcrypt"),
+    JSON_WRITE("json_write");
+
+    private final String label;
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    Stage(String label) {
+        this.label = label;
+    }
+
+    /**
+     * 记录从start开始到现在的耗时
+     *
+     * @param start System.nanoTime()得到的起始时间
+     */
+    public void recordSince(long start) {
+        histogram.recordSince(start);
+    }
+
+    public String label() {
+        return label;
+    }
+
+    public LatencyHistogram histogram() {
+        return histogram;
+    }
+}
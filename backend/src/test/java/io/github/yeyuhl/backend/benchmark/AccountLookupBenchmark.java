@@ -0,0 +1,161 @@
+package io.github.yeyuhl.backend.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.sql.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 账户查询基准测试，需要本地运行MySQL（默认 jdbc:mysql://localhost:3306/loginbyjwt，root，空密码，
+ * 可通过 -Dbench.url、-Dbench.user、-Dbench.password 修改）
+ * 首次运行时会创建与db_account结构相同的db_account_bench表并写入bench.rows行数据（默认300万），之后复用
+ * - or：原先的 username = ? OR email = ?
+ * - point：根据输入格式直接按unique_username或unique_email查询
+ * 每组分别用用户名与邮箱查询随机的已存在账户，setup中会打印两种查询的执行计划
+ *
+ * @author yeyuhl
+ * @since 2023/11/11
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AccountLookupBenchmark {
+    private static final String URL = System.getProperty("bench.url", "jdbc:mysql://localhost:3306/loginbyjwt");
+    private static final String USER = System.getProperty("bench.user", "root");
+    private static final String PASSWORD = System.getProperty("bench.password", "");
+    private static final int ROWS = Integer.getInteger("bench.rows", 3_000_000);
+
+    private static final String COLUMNS = "id, username, password, email, role, register_time";
+    private static final String OR_SQL = "SELECT " + COLUMNS + " FROM db_account_bench WHERE username = ? OR email = ?";
+    private static final String USERNAME_SQL = "SELECT " + COLUMNS + " FROM db_account_bench WHERE username = ? LIMIT 1";
+    private static final String EMAIL_SQL = "SELECT " + COLUMNS + " FROM db_account_bench WHERE email = ? LIMIT 1";
+
+    @State(Scope.Thread)
+    public static class Session {
+        Connection connection;
+        PreparedStatement or;
+        PreparedStatement username;
+        PreparedStatement email;
+
+        @Setup
+        public void open() throws SQLException {
+            connection = DriverManager.getConnection(URL + "?useServerPrepStmts=true&cachePrepStmts=true", USER, PASSWORD);
+            or = connection.prepareStatement(OR_SQL);
+            username = connection.prepareStatement(USERNAME_SQL);
+            email = connection.prepareStatement(EMAIL_SQL);
+        }
+
+        @TearDown
+        public void close() throws SQLException {
+            connection.close();
+        }
+    }
+
+    @Setup
+    public void seed() throws SQLException {
+        try (Connection connection = DriverManager.getConnection(URL + "?rewriteBatchedStatements=true", USER, PASSWORD);
+             Statement statement = connection.createStatement()) {
+            statement.execute("""
+                    CREATE TABLE IF NOT EXISTS db_account_bench (
+                        id int NOT NULL AUTO_INCREMENT,
+                        username varchar(255) DEFAULT NULL,
+                        email varchar(255) DEFAULT NULL,
+                        password varchar(255) DEFAULT NULL,
+                        role varchar(255) DEFAULT NULL,
+                        register_time datetime DEFAULT NULL,
+                        PRIMARY KEY (id),
+                        UNIQUE KEY unique_email (email),
+                        UNIQUE KEY unique_username (username)
+                    ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci""");
+            long existing;
+            try (ResultSet result = statement.executeQuery("SELECT COUNT(*) FROM db_account_bench")) {
+                result.next();
+                existing = result.getLong(1);
+            }
+            if (existing < ROWS) this.insert(connection, existing);
+            statement.execute("ANALYZE TABLE db_account_bench");
+            this.explain(statement, "EXPLAIN " + OR_SQL.replace("?", "'user1'"));
+            this.explain(statement, "EXPLAIN " + USERNAME_SQL.replace("?", "'user1'"));
+        }
+    }
+
+    @Benchmark
+    public boolean orByUsername(Session session) throws SQLException {
+        String name = randomName();
+        session.or.setString(1, name);
+        session.or.setString(2, name);
+        return exists(session.or);
+    }
+
+    @Benchmark
+    public boolean orByEmail(Session session) throws SQLException {
+        String email = randomName() + "@bench.io";
+        session.or.setString(1, email);
+        session.or.setString(2, email);
+        return exists(session.or);
+    }
+
+    @Benchmark
+    public boolean pointByUsername(Session session) throws SQLException {
+        session.username.setString(1, randomName());
+        return exists(session.username);
+    }
+
+    @Benchmark
+    public boolean pointByEmail(Session session) throws SQLException {
+        session.email.setString(1, randomName() + "@bench.io");
+        return exists(session.email);
+    }
+
+    private void insert(Connection connection, long from) throws SQLException {
+        connection.setAutoCommit(false);
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO db_account_bench (username, email, password, role, register_time) VALUES (?, ?, ?, 'user', NOW())")) {
+            for (long i = from; i < ROWS; i++) {
+                insert.setString(1, "user" + i);
+                insert.setString(2, "user" + i + "@bench.io");
+                insert.setString(3, "$2a$10$abcdefghijklmnopqrstuuJ0aJ3MvZb8e6Xz3mZ6m8Vv0h0u1b2c3");
+                insert.addBatch();
+                if (i % 10_000 == 9_999) {
+                    insert.executeBatch();
+                    connection.commit();
+                }
+            }
+            insert.executeBatch();
+            connection.commit();
+        }
+        connection.setAutoCommit(true);
+    }
+
+    private void explain(Statement statement, String sql) throws SQLException {
+        try (ResultSet result = statement.executeQuery(sql)) {
+            while (result.next()) {
+                System.out.printf("%s%n  type=%s key=%s rows=%s extra=%s%n", sql, result.getString("type"),
+                        result.getString("key"), result.getString("rows"), result.getString("Extra"));
+            }
+        }
+    }
+
+    private static String randomName() {
+        return "user" + ThreadLocalRandom.current().nextInt(ROWS);
+    }
+
+    private static boolean exists(PreparedStatement statement) throws SQLException {
+        try (ResultSet result = statement.executeQuery()) {
+            return result.next();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(AccountLookupBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
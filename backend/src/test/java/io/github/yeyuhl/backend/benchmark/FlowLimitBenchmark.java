@@ -0,0 +1,87 @@
+package io.github.yeyuhl.backend.benchmark;
+
+import io.github.yeyuhl.backend.utils.FlowUtils;
+import io.github.yeyuhl.backend.utils.RedisCircuitBreaker;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 限流单次请求延迟基准测试，需要本地运行Redis（localhost:6379）
+ * - before：原先的实现，hasKey封禁键 + hasKey计数键 + increment/set，以及超限后的封禁set，最多四次往返
+ * - after：FlowUtils中的原子脚本，一次EVALSHA
+ * 每次调用使用不同的客户端键，避免触发封禁导致测量的都是拒绝分支
+ *
+ * @author yeyuhl
+ * @since 2023/10/26
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FlowLimitBenchmark {
+    private LettuceConnectionFactory factory;
+    private StringRedisTemplate redisTemplate;
+    private FlowUtils flowUtils;
+    private final AtomicLong client = new AtomicLong();
+
+    @Setup
+    public void setup() {
+        factory = new LettuceConnectionFactory("localhost", 6379);
+        factory.afterPropertiesSet();
+        redisTemplate = new StringRedisTemplate(factory);
+        flowUtils = new FlowUtils();
+        ReflectionTestUtils.setField(flowUtils, "redisTemplate", redisTemplate);
+        // 基准测试中不触发熔断，始终访问Redis
+        RedisCircuitBreaker breaker = new RedisCircuitBreaker();
+        ReflectionTestUtils.setField(breaker, "failureThreshold", Integer.MAX_VALUE);
+        ReflectionTestUtils.setField(breaker, "slowCall", Long.MAX_VALUE);
+        ReflectionTestUtils.setField(flowUtils, "breaker", breaker);
+        flowUtils.loadScripts();
+    }
+
+    @TearDown
+    public void tearDown() {
+        factory.destroy();
+    }
+
+    @Benchmark
+    public boolean before() {
+        String address = "bench:before:" + (client.incrementAndGet() & 1023);
+        String counterKey = "flow:counter:" + address;
+        String blockKey = "flow:block:" + address;
+        if (Boolean.TRUE.equals(redisTemplate.hasKey(blockKey))) return false;
+        if (Boolean.TRUE.equals(redisTemplate.hasKey(counterKey))) {
+            long value = Optional.ofNullable(redisTemplate.opsForValue().increment(counterKey)).orElse(0L);
+            if (value > 50) {
+                redisTemplate.opsForValue().set(blockKey, "", 1, TimeUnit.SECONDS);
+                return false;
+            }
+            return true;
+        }
+        redisTemplate.opsForValue().set(counterKey, "1", 5, TimeUnit.SECONDS);
+        return true;
+    }
+
+    @Benchmark
+    public boolean after() {
+        String address = "bench:after:" + (client.incrementAndGet() & 1023);
+        return flowUtils.limitPeriodCheck("flow:counter:" + address, "flow:block:" + address, 1, 50, 5);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(FlowLimitBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,107 @@
+package io.github.yeyuhl.backend.benchmark;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.interfaces.Claim;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import io.github.yeyuhl.backend.entity.dto.JwtPrincipal;
+import io.github.yeyuhl.backend.utils.JwtFastParser;
+import io.github.yeyuhl.backend.utils.JwtKeyRing;
+import io.github.yeyuhl.backend.utils.JwtUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jwt解析基准测试，对比三种解析方式：
+ * - legacy：每次调用都重新构建Algorithm与JWTVerifier（原先的实现）
+ * - library：使用密钥环中预先构建的验证器，再通过getClaims()读取声明
+ * - fast：快速解析器直接在原始字节上校验与提取
+ * 运行方式：在测试类路径下执行main方法，建议同时加上 -prof gc 观察每次操作的内存分配
+ *
+ * @author yeyuhl
+ * @since 2023/10/23
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwtParseBenchmark {
+    private static final String KEY = "WkYXZzJkZmQyZ";
+
+    private JwtKeyRing keyRing;
+    private JwtFastParser fastParser;
+    private JwtUtils jwtUtils;
+    private String token;
+    private String legacyToken;
+
+    @Setup
+    public void setup() {
+        keyRing = new JwtKeyRing();
+        ReflectionTestUtils.setField(keyRing, "key", KEY);
+        ReflectionTestUtils.setField(keyRing, "expire", 15);
+        ReflectionTestUtils.setField(keyRing, "period", 24);
+        keyRing.init();
+        fastParser = new JwtFastParser();
+        ReflectionTestUtils.setField(fastParser, "keyRing", keyRing);
+        jwtUtils = new JwtUtils();
+        ReflectionTestUtils.setField(jwtUtils, "keyRing", keyRing);
+        JwtKeyRing.SigningKey signingKey = keyRing.current();
+        token = JWT.create()
+                .withKeyId(signingKey.kid())
+                .withJWTId(UUID.randomUUID().toString())
+                .withClaim("id", 1)
+                .withClaim("name", "yeyuhl")
+                .withClaim("authorities", List.of("ROLE_user"))
+                .withExpiresAt(new Date(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(7)))
+                .withIssuedAt(new Date())
+                .sign(signingKey.algorithm());
+        legacyToken = JWT.create()
+                .withJWTId(UUID.randomUUID().toString())
+                .withClaim("id", 1)
+                .withClaim("name", "yeyuhl")
+                .withClaim("authorities", List.of("ROLE_user"))
+                .withExpiresAt(new Date(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(7)))
+                .withIssuedAt(new Date())
+                .sign(Algorithm.HMAC256(KEY));
+        JwtPrincipal parsed = fastParser.parse(token);
+        if (parsed == null || parsed == JwtFastParser.INVALID) {
+            throw new IllegalStateException("快速解析器未能识别基准令牌");
+        }
+    }
+
+    @Benchmark
+    public Object legacy() {
+        Algorithm algorithm = Algorithm.HMAC256(KEY);
+        DecodedJWT jwt = JWT.require(algorithm).build().verify(legacyToken);
+        Map<String, Claim> claims = jwt.getClaims();
+        return new Object[]{claims.get("id").asInt(), claims.get("name").asString(),
+                claims.get("authorities").asArray(String.class), claims.get("exp").asDate()};
+    }
+
+    @Benchmark
+    public JwtPrincipal library() {
+        return jwtUtils.verifyJwt(token);
+    }
+
+    @Benchmark
+    public JwtPrincipal fast() {
+        return fastParser.parse(token);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(JwtParseBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,115 @@
+package io.github.yeyuhl.backend.benchmark;
+
+import io.github.yeyuhl.backend.utils.FlowUtils;
+import io.github.yeyuhl.backend.utils.RedisCircuitBreaker;
+import io.github.yeyuhl.backend.utils.limit.LimitAlgorithm;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Set;
+
+/**
+ * 限流算法对比模拟，需要本地运行Redis（localhost:6379）
+ * - 边界突发：在窗口结束前与下一个窗口开始后各发送一次配额的请求，统计一个周期内实际放行的数量
+ * - 匀速请求：以配额1.5倍的速率持续请求两个周期，统计放行的数量
+ * - 单次调用延迟与每个客户端占用的键数量、内存
+ *
+ * @author yeyuhl
+ * @since 2023/10/29
+ */
+public class RateLimitSimulation {
+    private static final int LIMIT = 50;
+    private static final int PERIOD = 2;
+
+    public static void main(String[] args) throws InterruptedException {
+        LettuceConnectionFactory factory = new LettuceConnectionFactory("localhost", 6379);
+        factory.afterPropertiesSet();
+        StringRedisTemplate redisTemplate = new StringRedisTemplate(factory);
+        FlowUtils flowUtils = new FlowUtils();
+        ReflectionTestUtils.setField(flowUtils, "redisTemplate", redisTemplate);
+        // 基准测试中不触发熔断，始终访问Redis
+        RedisCircuitBreaker breaker = new RedisCircuitBreaker();
+        ReflectionTestUtils.setField(breaker, "failureThreshold", Integer.MAX_VALUE);
+        ReflectionTestUtils.setField(breaker, "slowCall", Long.MAX_VALUE);
+        ReflectionTestUtils.setField(flowUtils, "breaker", breaker);
+        flowUtils.loadScripts();
+        try {
+            for (LimitAlgorithm algorithm : LimitAlgorithm.values()) {
+                String prefix = "sim:" + algorithm.name().toLowerCase() + ":";
+                clean(redisTemplate, prefix);
+                System.out.printf("%s%n", algorithm);
+                System.out.printf("  boundary burst: %d allowed within one period (limit %d)%n",
+                        boundaryBurst(flowUtils, algorithm, prefix + "burst"), LIMIT);
+                System.out.printf("  steady 1.5x rate: %d allowed over %d periods (ideal %d)%n",
+                        steady(flowUtils, algorithm, prefix + "steady"), 2, LIMIT * 2);
+                System.out.printf("  latency: %.1f us/call%n", latency(flowUtils, algorithm, prefix + "latency"));
+                System.out.printf("  state: %s%n", state(redisTemplate, prefix + "steady"));
+                clean(redisTemplate, prefix);
+            }
+        } finally {
+            factory.destroy();
+        }
+    }
+
+    private static boolean check(FlowUtils flowUtils, LimitAlgorithm algorithm, String key) {
+        return flowUtils.limitPeriodCheck(algorithm, key, key + ":block", 0, LIMIT, PERIOD);
+    }
+
+    private static int boundaryBurst(FlowUtils flowUtils, LimitAlgorithm algorithm, String key) throws InterruptedException {
+        long window = PERIOD * 1000L;
+        // 等到窗口的最后100毫秒再开始第一轮突发
+        long wait = window - System.currentTimeMillis() % window - 100;
+        if (wait > 0) Thread.sleep(wait);
+        int allowed = 0;
+        for (int i = 0; i < LIMIT; i++) {
+            if (check(flowUtils, algorithm, key)) allowed++;
+        }
+        Thread.sleep(200);
+        for (int i = 0; i < LIMIT; i++) {
+            if (check(flowUtils, algorithm, key)) allowed++;
+        }
+        return allowed;
+    }
+
+    private static int steady(FlowUtils flowUtils, LimitAlgorithm algorithm, String key) throws InterruptedException {
+        int total = LIMIT * 3;
+        long interval = PERIOD * 2000L / total;
+        int allowed = 0;
+        for (int i = 0; i < total; i++) {
+            if (check(flowUtils, algorithm, key)) allowed++;
+            Thread.sleep(interval);
+        }
+        return allowed;
+    }
+
+    private static double latency(FlowUtils flowUtils, LimitAlgorithm algorithm, String key) {
+        int calls = 20000;
+        for (int i = 0; i < 2000; i++) {
+            check(flowUtils, algorithm, key + ":" + (i & 255));
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < calls; i++) {
+            check(flowUtils, algorithm, key + ":" + (i & 255));
+        }
+        return (System.nanoTime() - start) / 1000.0 / calls;
+    }
+
+    private static String state(StringRedisTemplate redisTemplate, String key) {
+        Set<String> keys = redisTemplate.keys(key + "*");
+        if (keys == null) return "unknown";
+        long bytes = 0;
+        for (String k : keys) {
+            Object usage = redisTemplate.execute((RedisCallback<Object>) connection ->
+                    connection.execute("MEMORY", "USAGE".getBytes(), k.getBytes()));
+            if (usage instanceof Long value) bytes += value;
+        }
+        return keys.size() + " keys, " + bytes + " bytes";
+    }
+
+    private static void clean(StringRedisTemplate redisTemplate, String prefix) {
+        Set<String> keys = redisTemplate.keys(prefix + "*");
+        if (keys != null && !keys.isEmpty()) redisTemplate.delete(keys);
+    }
+}
@@ -0,0 +1,89 @@
+package io.github.yeyuhl.backend.benchmark;
+
+import io.github.yeyuhl.backend.utils.SnowflakeIdGenerator;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 雪花ID生成基准测试，分别在1、4、16、64个线程下对比：
+ * - legacy：原先的实现，synchronized加锁，序列号用完时自旋等待下一毫秒
+ * - cas：单个AtomicLong上的CAS
+ * - block：每个线程预留64个ID的块，用完后再预留
+ * 运行方式：在测试类路径下执行main方法
+ *
+ * @author yeyuhl
+ * @since 2023/11/08
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SnowflakeBenchmark {
+    private final LegacyGenerator legacy = new LegacyGenerator();
+    private final SnowflakeIdGenerator generator = new SnowflakeIdGenerator();
+
+    @State(Scope.Thread)
+    public static class ThreadBlock {
+        SnowflakeIdGenerator.Block block;
+    }
+
+    @Benchmark
+    public long legacy() {
+        return legacy.nextId();
+    }
+
+    @Benchmark
+    public long cas() {
+        return generator.nextId();
+    }
+
+    @Benchmark
+    public long block(ThreadBlock local) {
+        if (local.block == null || !local.block.hasNext()) local.block = generator.reserve(64);
+        return local.block.next();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : new int[]{1, 4, 16, 64}) {
+            new Runner(new OptionsBuilder()
+                    .include(SnowflakeBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build()).run();
+        }
+    }
+
+    /**
+     * 原先的加锁实现，用于对比
+     */
+    private static class LegacyGenerator {
+        private static final long START_TIMESTAMP = 1697870049141L;
+        private static final long MAX_SEQUENCE = ~(-1L << 12);
+        private long lastTimestamp = -1L;
+        private long sequence = 0L;
+
+        synchronized long nextId() {
+            long timestamp = System.currentTimeMillis();
+            if (timestamp < lastTimestamp) {
+                throw new IllegalStateException("Clock moved backwards. Refusing to generate ID.");
+            }
+            if (timestamp == lastTimestamp) {
+                sequence = (sequence + 1) & MAX_SEQUENCE;
+                if (sequence == 0) {
+                    while (timestamp <= lastTimestamp) {
+                        timestamp = System.currentTimeMillis();
+                    }
+                }
+            } else {
+                sequence = 0L;
+            }
+            lastTimestamp = timestamp;
+            return ((timestamp - START_TIMESTAMP) << 22) | (1L << 17) | (1L << 12) | sequence;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package io.github.yeyuhl.backend.utils;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * 测试用的本地假Redis，只实现RESP协议的最小子集，可以为每条命令注入固定延迟
+ * 每条命令的响应时间为收到命令的时间加上当时的延迟，命令之间不会互相排队拖长延迟
+ * - PING：+PONG
+ * - HELLO：返回错误，让客户端回退到RESP2
+ * - EVAL/EVALSHA：整数1
+ * - GET：空值
+ * - 其他命令：+OK
+ *
+ * @author yeyuhl
+ * @since 2023/11/01
+ */
+class FakeRedisServer implements Closeable {
+    private final ServerSocket server;
+    private final List<Socket> clients = new ArrayList<>();
+    private volatile long latency;
+
+    FakeRedisServer() throws IOException {
+        this.server = new ServerSocket(0);
+        Thread acceptor = new Thread(this::accept, "fake-redis-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int port() {
+        return server.getLocalPort();
+    }
+
+    void latency(long millis) {
+        this.latency = millis;
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        synchronized (clients) {
+            for (Socket client : clients) client.close();
+        }
+    }
+
+    private void accept() {
+        try {
+            while (!server.isClosed()) {
+                Socket socket = server.accept();
+                synchronized (clients) {
+                    clients.add(socket);
+                }
+                BlockingQueue<Reply> replies = new LinkedBlockingQueue<>();
+                this.start(() -> this.read(socket, replies), "fake-redis-reader");
+                this.start(() -> this.write(socket, replies), "fake-redis-writer");
+            }
+        } catch (IOException ignored) {
+            // 服务关闭
+        }
+    }
+
+    private void read(Socket socket, BlockingQueue<Reply> replies) {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            while (true) {
+                List<String> command = readCommand(in);
+                if (command == null) return;
+                replies.add(new Reply(System.currentTimeMillis() + latency, this.reply(command)));
+            }
+        } catch (IOException ignored) {
+            // 连接关闭
+        }
+    }
+
+    private void write(Socket socket, BlockingQueue<Reply> replies) {
+        try {
+            OutputStream out = socket.getOutputStream();
+            while (true) {
+                Reply reply = replies.take();
+                long wait = reply.due() - System.currentTimeMillis();
+                if (wait > 0) Thread.sleep(wait);
+                out.write(reply.body().getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+        } catch (IOException | InterruptedException ignored) {
+            // 连接关闭
+        }
+    }
+
+    private String reply(List<String> command) {
+        return switch (command.get(0).toUpperCase()) {
+            case "PING" -> "+PONG\r\n";
+            case "HELLO" -> "-ERR unknown command 'HELLO'\r\n";
+            case "EVAL", "EVALSHA" -> ":1\r\n";
+            case "GET" -> "$-1\r\n";
+            default -> "+OK\r\n";
+        };
+    }
+
+    private static List<String> readCommand(DataInputStream in) throws IOException {
+        String header = readLine(in);
+        if (header == null) return null;
+        int count = Integer.parseInt(header.substring(1));
+        List<String> args = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int length = Integer.parseInt(readLine(in).substring(1));
+            byte[] data = new byte[length + 2];
+            in.readFully(data);
+            args.add(new String(data, 0, length, StandardCharsets.UTF_8));
+        }
+        return args;
+    }
+
+    private static String readLine(DataInputStream in) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\r') {
+            if (c < 0) return null;
+            builder.append((char) c);
+        }
+        in.read();
+        return builder.toString();
+    }
+
+    private void start(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private record Reply(long due, String body) {
+    }
+}
@@ -0,0 +1,196 @@
+package io.github.yeyuhl.backend.utils;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.JWTCreator;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import io.github.yeyuhl.backend.entity.dto.JwtPrincipal;
+import io.github.yeyuhl.backend.utils.limit.LimitAlgorithm;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 验证快速解析器与通用库的结果一致：
+ * 签名错误或已过期的令牌返回INVALID，无法识别的令牌返回null交给通用库，createJwt签发的令牌能被正确解析
+ *
+ * @author yeyuhl
+ * @since 2023/11/13
+ */
+class JwtFastParserTests {
+    private static final String KEY = "WkYXZzJkZmQyZ";
+
+    private FixedKeyRing keyRing;
+    private JwtFastParser parser;
+    private JwtUtils jwtUtils;
+
+    @BeforeEach
+    void setup() {
+        keyRing = new FixedKeyRing();
+        ReflectionTestUtils.setField(keyRing, "key", KEY);
+        ReflectionTestUtils.setField(keyRing, "expire", 7);
+        ReflectionTestUtils.setField(keyRing, "accessExpire", 15);
+        ReflectionTestUtils.setField(keyRing, "period", 24);
+        keyRing.init();
+        parser = new JwtFastParser();
+        ReflectionTestUtils.setField(parser, "keyRing", keyRing);
+        jwtUtils = new JwtUtils();
+        ReflectionTestUtils.setField(jwtUtils, "keyRing", keyRing);
+        ReflectionTestUtils.setField(jwtUtils, "accessExpire", 15);
+        ReflectionTestUtils.setField(jwtUtils, "limit_algorithm", LimitAlgorithm.FIXED_WINDOW);
+        ReflectionTestUtils.setField(jwtUtils, "epochs", new RevocationEpochs() {
+            @Override
+            public Long forIssue(int userId) {
+                return 3L;
+            }
+        });
+        ReflectionTestUtils.setField(jwtUtils, "flowUtils", new FlowUtils() {
+            @Override
+            public boolean limitOnceUpgradeCheck(LimitAlgorithm algorithm, String key, int frequency, int blockTime, int upgradeTime) {
+                return true;
+            }
+        });
+    }
+
+    @Test
+    void decodesCreatedTokensForEveryKey() {
+        UserDetails user = User.withUsername("叶雨").password("******").roles("user").build();
+        for (JwtKeyRing.SigningKey key : keyRing.fastKeys()) {
+            keyRing.fixed = key;
+            // 旧版主密钥不再用于签发，只验证此前签发的不带kid的令牌
+            String token = key.kid() == null
+                    ? this.sign(key, builder -> builder.withClaim("id", 42).withClaim("name", "叶雨")
+                    .withClaim("ep", 3L).withClaim("authorities", List.of("ROLE_user")))
+                    : jwtUtils.createJwt(user, "叶雨", 42);
+            assertNotNull(token);
+            JwtPrincipal principal = parser.parse(token);
+            assertNotNull(principal, "kid " + key.kid());
+            assertNotSame(JwtFastParser.INVALID, principal, "kid " + key.kid());
+            DecodedJWT decoded = JWT.decode(token);
+            assertEquals(key.kid(), decoded.getKeyId());
+            assertEquals(42, principal.id());
+            assertEquals("叶雨", principal.username());
+            assertEquals(List.of("ROLE_user"), principal.authorities());
+            assertEquals(decoded.getId(), principal.jti());
+            assertEquals(decoded.getExpiresAt().getTime(), principal.expiresAt());
+            assertEquals(3L, principal.epoch());
+            assertEquals(jwtUtils.verifyJwt(token), principal);
+        }
+    }
+
+    @Test
+    void tamperedSignatureIsInvalid() {
+        String token = this.sign(keyRing.current(), builder -> builder);
+        int dot2 = token.lastIndexOf('.');
+        // 替换签名段的第一个字符，最后一个字符可能只影响填充位
+        char first = token.charAt(dot2 + 1);
+        String tampered = token.substring(0, dot2 + 1) + (first == 'A' ? 'B' : 'A') + token.substring(dot2 + 2);
+        assertSame(JwtFastParser.INVALID, parser.parse(tampered));
+        assertNull(jwtUtils.verifyJwt(tampered));
+    }
+
+    @Test
+    void tamperedPayloadIsInvalid() {
+        JwtKeyRing.SigningKey key = keyRing.current();
+        String token = this.sign(key, builder -> builder);
+        String forged = this.sign(key, builder -> builder.withClaim("id", 1));
+        String[] original = token.split("\\.");
+        String[] other = forged.split("\\.");
+        String tampered = original[0] + "." + other[1] + "." + original[2];
+        assertSame(JwtFastParser.INVALID, parser.parse(tampered));
+    }
+
+    @Test
+    void expiredTokenIsInvalid() {
+        String token = this.sign(keyRing.current(), builder -> builder
+                .withExpiresAt(new Date(System.currentTimeMillis() - 1000)));
+        assertSame(JwtFastParser.INVALID, parser.parse(token));
+        assertNull(jwtUtils.verifyJwt(token));
+    }
+
+    @Test
+    void unknownHeaderFallsBack() {
+        JwtKeyRing.SigningKey key = keyRing.current();
+        String token = JWT.create()
+                .withKeyId(key.kid())
+                .withHeader(Map.of("cty", "test"))
+                .withJWTId(UUID.randomUUID().toString())
+                .withClaim("id", 42)
+                .withClaim("name", "yeyuhl")
+                .withClaim("ep", 0L)
+                .withClaim("authorities", List.of("ROLE_user"))
+                .withExpiresAt(new Date(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(15)))
+                .withIssuedAt(new Date())
+                .sign(key.algorithm());
+        assertNull(parser.parse(token));
+        assertNotNull(jwtUtils.verifyJwt(token));
+        // 其他算法签发的令牌同样交给通用库，由通用库拒绝
+        String other = JWT.create().withKeyId(key.kid()).sign(Algorithm.HMAC384(KEY));
+        assertNull(parser.parse(other));
+        assertNull(jwtUtils.verifyJwt(other));
+    }
+
+    @Test
+    void unknownClaimFallsBack() {
+        String token = this.sign(keyRing.current(), builder -> builder.withClaim("scope", "admin"));
+        assertNull(parser.parse(token));
+        JwtPrincipal principal = jwtUtils.verifyJwt(token);
+        assertNotNull(principal);
+        assertEquals(42, principal.id());
+    }
+
+    @Test
+    void escapedStringFallsBack() {
+        String token = this.sign(keyRing.current(), builder -> builder.withClaim("name", "ye\"yu\\hl"));
+        assertNull(parser.parse(token));
+        JwtPrincipal principal = jwtUtils.verifyJwt(token);
+        assertNotNull(principal);
+        assertEquals("ye\"yu\\hl", principal.username());
+    }
+
+    @Test
+    void malformedTokensFallBack() {
+        assertNull(parser.parse("abc"));
+        assertNull(parser.parse("a.b"));
+        assertNull(parser.parse("a.b.c.d"));
+    }
+
+    /**
+     * 按createJwt的声明集合签发令牌，再由调用方修改，旧版主密钥签发的令牌不带kid
+     */
+    private String sign(JwtKeyRing.SigningKey key, UnaryOperator<JWTCreator.Builder> customizer) {
+        JWTCreator.Builder builder = JWT.create();
+        if (key.kid() != null) builder.withKeyId(key.kid());
+        builder.withJWTId(UUID.randomUUID().toString())
+                .withClaim("id", 42)
+                .withClaim("name", "yeyuhl")
+                .withClaim("ep", 0L)
+                .withClaim("authorities", List.of("ROLE_user"))
+                .withExpiresAt(new Date(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(15)))
+                .withIssuedAt(new Date());
+        return customizer.apply(builder).sign(key.algorithm());
+    }
+
+    /**
+     * 可以指定签名密钥的密钥环，用于让createJwt依次使用每个密钥
+     */
+    private static final class FixedKeyRing extends JwtKeyRing {
+        private JwtKeyRing.SigningKey fixed;
+
+        @Override
+        public SigningKey current() {
+            return fixed != null ? fixed : super.current();
+        }
+    }
+}
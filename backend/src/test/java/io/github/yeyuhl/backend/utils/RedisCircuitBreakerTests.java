@@ -0,0 +1,129 @@
+package io.github.yeyuhl.backend.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import io.github.yeyuhl.backend.utils.limit.LimitAlgorithm;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 使用注入延迟的假Redis验证熔断与降级
+ *
+ * @author yeyuhl
+ * @since 2023/11/01
+ */
+class RedisCircuitBreakerTests {
+    private FakeRedisServer server;
+    private LettuceConnectionFactory factory;
+    private RedisCircuitBreaker breaker;
+    private FlowUtils flowUtils;
+
+    @BeforeEach
+    void setup() throws IOException {
+        server = new FakeRedisServer();
+        factory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("localhost", server.port()),
+                LettuceClientConfiguration.builder().commandTimeout(Duration.ofMillis(100)).build());
+        factory.afterPropertiesSet();
+        breaker = new RedisCircuitBreaker();
+        ReflectionTestUtils.setField(breaker, "failureThreshold", 3);
+        ReflectionTestUtils.setField(breaker, "slowCall", 50L);
+        ReflectionTestUtils.setField(breaker, "openDuration", 300L);
+        ReflectionTestUtils.setField(breaker, "policy", RedisCircuitBreaker.Policy.FAIL_OPEN);
+        flowUtils = new FlowUtils();
+        ReflectionTestUtils.setField(flowUtils, "redisTemplate", new StringRedisTemplate(factory));
+        ReflectionTestUtils.setField(flowUtils, "breaker", breaker);
+        // 先在无延迟时建立连接，避免握手超时影响后续断言
+        assertTrue(flowUtils.limitOnceCheck("test:warmup", 10));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        factory.destroy();
+        server.close();
+    }
+
+    @Test
+    void slowRedisOpensBreakerAndDegradesToLocalLimiter() {
+        this.trip();
+        assertEquals(RedisCircuitBreaker.State.OPEN, breaker.state());
+        long calls = breaker.calls();
+        long start = System.nanoTime();
+        int allowed = 0;
+        for (int i = 0; i < 10; i++) {
+            if (flowUtils.limitPeriodCheck(LimitAlgorithm.SLIDING_WINDOW, "test:local", "test:local:block", 0, 5, 60))
+                allowed++;
+        }
+        // 熔断期间不访问Redis，本地限流依然生效
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 50);
+        assertEquals(calls, breaker.calls());
+        assertEquals(5, allowed);
+        assertTrue(breaker.rejections() >= 10);
+    }
+
+    @Test
+    void probeClosesBreakerAfterRedisRecovers() throws InterruptedException {
+        this.trip();
+        server.latency(0);
+        // 等待熔断结束，同时让之前积压的响应全部返回
+        Thread.sleep(600);
+        assertTrue(flowUtils.limitOnceCheck("test:probe", 10));
+        assertEquals(RedisCircuitBreaker.State.CLOSED, breaker.state());
+        assertEquals(1, breaker.openCount());
+    }
+
+    @Test
+    void revocationEpochFollowsPolicyWithoutSnapshot() {
+        RevocationEpochs epochs = new RevocationEpochs();
+        ReflectionTestUtils.setField(epochs, "redisTemplate", new StringRedisTemplate(factory));
+        ReflectionTestUtils.setField(epochs, "breaker", breaker);
+        ReflectionTestUtils.setField(epochs, "size", 100L);
+        ReflectionTestUtils.setField(epochs, "ttl", 30);
+        epochs.init();
+        this.trip();
+        assertEquals(0L, epochs.current(1));
+        ReflectionTestUtils.setField(breaker, "policy", RedisCircuitBreaker.Policy.FAIL_CLOSED);
+        assertEquals(Long.MAX_VALUE, epochs.current(1));
+    }
+
+    @Test
+    void revocationEpochRefusesIssuanceWithoutSnapshot() {
+        RevocationEpochs epochs = new RevocationEpochs();
+        ReflectionTestUtils.setField(epochs, "redisTemplate", new StringRedisTemplate(factory));
+        ReflectionTestUtils.setField(epochs, "breaker", breaker);
+        ReflectionTestUtils.setField(epochs, "size", 100L);
+        ReflectionTestUtils.setField(epochs, "ttl", 30);
+        epochs.init();
+        // 假Redis的GET返回空值，即纪元为0，读到之后留有快照，熔断期间仍可签发
+        assertEquals(Long.valueOf(0), epochs.forIssue(1));
+        this.trip();
+        // 清空30秒的纪元缓存，熔断期间的读取只能来自快照
+        ((Cache<?, ?>) ReflectionTestUtils.getField(epochs, "cache")).invalidateAll();
+        assertEquals(Long.valueOf(0), epochs.forIssue(1));
+        // 没有快照的用户无论降级策略如何都不能签发
+        assertNull(epochs.forIssue(2));
+        ReflectionTestUtils.setField(breaker, "policy", RedisCircuitBreaker.Policy.FAIL_CLOSED);
+        assertNull(epochs.forIssue(2));
+        assertFalse(epochs.bump(2));
+    }
+
+    /**
+     * 注入超过命令超时的延迟，连续失败直到熔断
+     */
+    private void trip() {
+        server.latency(300);
+        for (int i = 0; i < 3; i++) {
+            // 超时的调用降级为本地限流，依然可以得到结果
+            assertTrue(flowUtils.limitPeriodCheck("test:trip:" + i, "test:trip:" + i + ":block", 0, 5, 60));
+        }
+    }
+}
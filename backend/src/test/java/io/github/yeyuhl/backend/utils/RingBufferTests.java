@@ -0,0 +1,86 @@
+package io.github.yeyuhl.backend.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 验证环形队列在多个生产者与单个消费者并发读写时不丢失、不重复，且每个生产者写入的顺序保持不变
+ *
+ * @author yeyuhl
+ * @since 2023/11/13
+ */
+class RingBufferTests {
+    private static final int PRODUCERS = 4;
+    private static final int PER_PRODUCER = 200_000;
+
+    @Test
+    void offerFailsWhenFullAndPollReturnsInOrder() {
+        RingBuffer<Integer> buffer = new RingBuffer<>(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(i));
+        }
+        assertFalse(buffer.offer(4));
+        assertEquals(4, buffer.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, buffer.poll());
+        }
+        assertNull(buffer.poll());
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    void concurrentOfferAndPoll() throws InterruptedException {
+        // 容量远小于总数，生产者会频繁遇到队列已满并重试，槽位会被反复复用
+        RingBuffer<Long> buffer = new RingBuffer<>(64);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            long producer = p;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (long i = 0; i < PER_PRODUCER; i++) {
+                    // 高32位为生产者编号，低32位为该生产者内的序号
+                    Long element = producer << 32 | i;
+                    while (!buffer.offer(element)) {
+                        Thread.yield();
+                    }
+                }
+            }, "ring-buffer-producer-" + p);
+            thread.start();
+            producers.add(thread);
+        }
+        long[] next = new long[PRODUCERS];
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        start.countDown();
+        long received = 0;
+        while (received < (long) PRODUCERS * PER_PRODUCER) {
+            Long element = buffer.poll();
+            if (element == null) {
+                assertTrue(System.nanoTime() < deadline, "消费者等待超时，已收到" + received + "个元素");
+                Thread.yield();
+                continue;
+            }
+            int producer = (int) (element >>> 32);
+            assertEquals(next[producer], element & 0xFFFFFFFFL);
+            next[producer]++;
+            received++;
+        }
+        for (Thread thread : producers) {
+            thread.join();
+        }
+        assertNull(buffer.poll());
+        for (long count : next) {
+            assertEquals(PER_PRODUCER, count);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package io.github.yeyuhl.backend.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 验证雪花算法ID在多线程并发生成时不重复、每个线程内严格递增，以及批量大小上限与序列号进位
+ *
+ * @author yeyuhl
+ * @since 2023/11/13
+ */
+class SnowflakeIdGeneratorTests {
+    private static final int THREADS = 4;
+    private static final int PER_THREAD = 50_000;
+    private static final long SEQUENCE_MASK = SnowflakeIdGenerator.MAX_BATCH - 1;
+
+    @Test
+    void concurrentIdsAreUniqueAndIncreasing() throws InterruptedException {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator();
+        List<long[]> results = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        CountDownLatch start = new CountDownLatch(1);
+        for (int t = 0; t < THREADS; t++) {
+            long[] ids = new long[PER_THREAD];
+            results.add(ids);
+            int mode = t % 3;
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                // 三种方式交替使用，它们共享同一个状态
+                int i = 0;
+                while (i < PER_THREAD) {
+                    if (mode == 0) {
+                        ids[i++] = generator.nextId();
+                    } else if (mode == 1) {
+                        for (long id : generator.nextIds(Math.min(100, PER_THREAD - i))) ids[i++] = id;
+                    } else {
+                        SnowflakeIdGenerator.Block block = generator.reserve(Math.min(64, PER_THREAD - i));
+                        while (block.hasNext()) ids[i++] = block.next();
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(30));
+            assertFalse(thread.isAlive());
+        }
+        Set<Long> all = new HashSet<>(THREADS * PER_THREAD * 2);
+        for (long[] ids : results) {
+            for (int i = 0; i < ids.length; i++) {
+                if (i > 0) assertTrue(ids[i] > ids[i - 1], "ids within a thread must increase");
+                assertTrue(all.add(ids[i]), "duplicate id " + ids[i]);
+            }
+        }
+        assertEquals(THREADS * PER_THREAD, all.size());
+    }
+
+    @Test
+    void batchSizeIsBounded() {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator();
+        assertEquals(SnowflakeIdGenerator.MAX_BATCH, generator.nextIds(SnowflakeIdGenerator.MAX_BATCH).length);
+        assertThrows(IllegalArgumentException.class, () -> generator.nextIds(SnowflakeIdGenerator.MAX_BATCH + 1));
+        assertThrows(IllegalArgumentException.class, () -> generator.nextIds(0));
+        assertThrows(IllegalArgumentException.class, () -> generator.reserve(SnowflakeIdGenerator.MAX_BATCH + 1));
+        assertThrows(IllegalArgumentException.class, () -> generator.reserve(-1));
+    }
+
+    @Test
+    void sequenceRollsOverIntoNextMillisecond() {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator();
+        // 两个最大批次必然跨过至少一次序列号溢出
+        long[] first = generator.nextIds(SnowflakeIdGenerator.MAX_BATCH);
+        long[] second = generator.nextIds(SnowflakeIdGenerator.MAX_BATCH);
+        long[] ids = new long[first.length + second.length];
+        System.arraycopy(first, 0, ids, 0, first.length);
+        System.arraycopy(second, 0, ids, first.length, second.length);
+        int rollovers = 0;
+        for (int i = 1; i < ids.length; i++) {
+            long previous = ids[i - 1], current = ids[i];
+            assertEquals(SnowflakeIdGenerator.nodeOf(previous), SnowflakeIdGenerator.nodeOf(current));
+            long previousTime = previous >>> 22, currentTime = current >>> 22;
+            if ((previous & SEQUENCE_MASK) == SEQUENCE_MASK) {
+                // 序列号用完时进位到下一毫秒，或者时钟已经前进到更晚的毫秒
+                assertTrue(currentTime > previousTime);
+                assertEquals(0, current & SEQUENCE_MASK);
+                rollovers++;
+            } else if (currentTime == previousTime) {
+                assertEquals((previous & SEQUENCE_MASK) + 1, current & SEQUENCE_MASK);
+            } else {
+                // 批次内连续分配，只有序列号用完时才会换到新的毫秒
+                fail("timestamp advanced before the sequence was exhausted at index " + i);
+            }
+        }
+        assertTrue(rollovers >= 1);
+    }
+}
@@ -0,0 +1,49 @@
+package io.github.yeyuhl.backend.utils.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 验证延迟直方图的分桶与分位数误差
+ *
+ * @author yeyuhl
+ * @since 2023/11/06
+ */
+class LatencyHistogramTests {
+    @Test
+    void bucketBoundsContainValue() {
+        for (long value : new long[]{0, 1, 31, 32, 63, 64, 1000, 123_456_789, 1L << 40, Long.MAX_VALUE}) {
+            int index = LatencyHistogram.indexOf(value);
+            if (value < (1L << 41)) assertTrue(LatencyHistogram.highestValueOf(index) >= value);
+            if (index > 0) assertTrue(LatencyHistogram.highestValueOf(index - 1) < value);
+        }
+    }
+
+    @Test
+    void quantilesWithinRelativeError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 100_000; i++) {
+            histogram.record(i * 1000);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(100_000, snapshot.count());
+        assertEquals(50_000_000, snapshot.quantile(0.5), 50_000_000 / 32.0);
+        assertEquals(99_000_000, snapshot.quantile(0.99), 99_000_000 / 32.0);
+        assertEquals(99_900_000, snapshot.quantile(0.999), 99_900_000 / 32.0);
+        assertEquals(100_000_000, snapshot.max());
+    }
+
+    @Test
+    void cumulativeCountsWithinRelativeError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 100_000; i++) {
+            histogram.record(i * 1000);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(0, snapshot.countAtOrBelow(0));
+        assertEquals(50_000, snapshot.countAtOrBelow(50_000_000), 50_000 / 32.0);
+        assertEquals(99_000, snapshot.countAtOrBelow(99_000_000), 99_000 / 32.0);
+        assertEquals(100_000, snapshot.countAtOrBelow(Long.MAX_VALUE));
+    }
+}
@@ -2,6 +2,10 @@ import axios from "axios"
 import {ElMessage} from "element-plus";
 
 const authItemName = "authorize"
+const refreshTokenHeader = "X-Refresh-Token"
+
+// 正在进行的刷新请求，同一页面内的并发请求共用一次刷新
+let refreshing = null
 
 const accessTokenHeader = () => {
     return {
@@ -30,7 +34,7 @@ function internalPost(url, data, headers, success, failure, error = defaultError
 }
 
 function post(url, data, success, failure = defaultFailure) {
-    internalPost(url, data, accessTokenHeader(), success, failure)
+    withAccessToken(() => internalPost(url, data, accessTokenHeader(), success, failure))
 }
 
 function internalGet(url, headers, success, failure, error = defaultError) {
@@ -44,26 +48,50 @@ function internalGet(url, headers, success, failure, error = defaultError) {
 }
 
 function get(url, success, failure = defaultFailure) {
-    internalGet(url, accessTokenHeader(), success, failure)
+    withAccessToken(() => internalGet(url, accessTokenHeader(), success, failure))
 }
 
-function takeAccessToken() {
+function takeAuthObj() {
     const str = localStorage.getItem(authItemName) || sessionStorage.getItem(authItemName)
     if (!str) {
         return null
     }
     // 重新封装为JSON
-    const authObj = JSON.parse(str)
-    if (authObj.expire <= new Date()) {
-        deleteAccessToken()
-        ElMessage.warning('登录已过期，请重新登录!')
+    return JSON.parse(str)
+}
+
+// 后端返回的时间可能是时间戳或者日期字符串
+function toTime(value) {
+    return typeof value === 'number' ? value : Date.parse(String(value).replace(' ', 'T'))
+}
+
+function canRefresh(authObj) {
+    return !!authObj.refreshToken && toTime(authObj.refreshExpire) > Date.now()
+}
+
+function takeAccessToken() {
+    const authObj = takeAuthObj()
+    if (!authObj) {
+        return null
+    }
+    if (toTime(authObj.expire) <= Date.now()) {
+        // 访问令牌过期但还可以刷新时保留登录状态
+        if (!canRefresh(authObj)) {
+            deleteAccessToken()
+            ElMessage.warning('登录已过期，请重新登录!')
+        }
         return null
     }
     return authObj.token
 }
 
-function storeAccessToken(remember, token, expire) {
-    const authObj = {token: token, expire: expire}
+function storeAccessToken(remember, data) {
+    const authObj = {
+        token: data.token,
+        expire: data.expire,
+        refreshToken: data.refreshToken,
+        refreshExpire: data.refreshExpire
+    }
     const str = JSON.stringify(authObj)
     if (remember) {
         localStorage.setItem(authItemName, str)
@@ -72,13 +100,46 @@ function storeAccessToken(remember, token, expire) {
     }
 }
 
+// 使用刷新令牌换取新的访问令牌，刷新失败时清除登录状态
+function refreshAccessToken() {
+    if (!refreshing) {
+        const authObj = takeAuthObj()
+        const remember = !!localStorage.getItem(authItemName)
+        refreshing = axios.post('/api/auth/refresh', null, {
+            headers: {[refreshTokenHeader]: authObj.refreshToken}
+        }).then(({data}) => {
+            if (data.code === 200) {
+                storeAccessToken(remember, data.data)
+            } else {
+                deleteAccessToken()
+                ElMessage.warning('登录已过期，请重新登录!')
+            }
+        }).catch(err => console.warn(err)).finally(() => refreshing = null)
+    }
+    return refreshing
+}
+
+// 访问令牌即将过期（不足一分钟）时先刷新再发送请求
+function withAccessToken(action) {
+    const authObj = takeAuthObj()
+    if (authObj && toTime(authObj.expire) - 60000 <= Date.now() && canRefresh(authObj)) {
+        refreshAccessToken().then(action)
+    } else {
+        action()
+    }
+}
+
 function deleteAccessToken() {
     localStorage.removeItem(authItemName)
     sessionStorage.removeItem(authItemName)
 }
 
 function unauthorized() {
-    return !takeAccessToken()
+    if (takeAccessToken()) {
+        return false
+    }
+    const authObj = takeAuthObj()
+    return !authObj || !canRefresh(authObj)
 }
 
 
@@ -90,18 +151,26 @@ function login(username, password, remember, success, failure = defaultFailure)
         }, {
             'Content-Type': 'application/x-www-form-urlencoded'
         }, (data) => {
-            storeAccessToken(remember, data.token, data.expire)
+            storeAccessToken(remember, data)
             ElMessage.success(`登录成功，欢迎${data.username}`)
             success(data)
         }, failure)
 }
 
 function logout(success, failure = defaultFailure) {
-    get(('/api/auth/logout'), () => {
-        deleteAccessToken()
-        ElMessage.success('退出登录成功')
-        success()
-    }, failure)
+    withAccessToken(() => {
+        const authObj = takeAuthObj()
+        const headers = accessTokenHeader()
+        // 退出时一并吊销刷新令牌
+        if (authObj && authObj.refreshToken) {
+            headers[refreshTokenHeader] = authObj.refreshToken
+        }
+        internalGet('/api/auth/logout', headers, () => {
+            deleteAccessToken()
+            ElMessage.success('退出登录成功')
+            success()
+        }, failure)
+    })
 }
 
 export {login, logout, post, get, unauthorized}
\ No newline at end of file